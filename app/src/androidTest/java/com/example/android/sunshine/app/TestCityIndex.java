@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class TestCityIndex extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCityIndex.class.getSimpleName();
+
+    // Sorted by key, like the asset
+    static private final String[] SMALL_INDEX = {
+            "aachen\tAachen,DE",
+            "paris\tParis,FR",
+            "paris\tParis,US",
+            "york\tYork,GB",
+            "yorktown\tYorktown,US",
+            "zurich\tZürich,CH"
+    };
+
+    private File mIndexFile;
+
+    public void setUp() {
+        mIndexFile = new File(mContext.getCacheDir(), "test_cities.idx");
+    }
+
+    public void tearDown() throws Exception {
+        mIndexFile.delete();
+        super.tearDown();
+    }
+
+    private CityIndex writeIndex(List<String> lines, boolean trailingNewline)
+            throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(mIndexFile), "UTF-8");
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                out.write(lines.get(i));
+                if (i < lines.size() - 1 || trailingNewline) {
+                    out.write('\n');
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return CityIndex.open(mIndexFile);
+    }
+
+    public void testEdgeCases() throws IOException {
+        // The last line is read differently when the file doesn't end with a newline
+        for (boolean trailingNewline : new boolean[]{true, false}) {
+            CityIndex index = writeIndex(Arrays.asList(SMALL_INDEX), trailingNewline);
+            String error = "Error: trailing newline " + trailingNewline + ": ";
+
+            // First and last lines
+            assertEquals(error, Arrays.asList("Aachen,DE"), index.suggest("Aach", 10));
+            assertEquals(error, "Aachen,DE", index.canonicalize("aachen"));
+            assertEquals(error, Arrays.asList("Zürich,CH"), index.suggest("zur", 10));
+            assertEquals(error, "Zürich,CH", index.canonicalize("Zürich"));
+
+            // Before the first key and past the last one
+            assertEquals(error, Collections.<String>emptyList(), index.suggest("0", 10));
+            assertEquals(error, Collections.<String>emptyList(), index.suggest("zz", 10));
+            assertNull(error, index.canonicalize("zzz"));
+            assertNull(error, index.canonicalize("zurichs"));
+
+            // A key that is a prefix of another
+            assertEquals(error, Arrays.asList("York,GB", "Yorktown,US"),
+                    index.suggest("york", 10));
+            assertEquals(error, "York,GB", index.canonicalize("York"));
+            assertEquals(error, "York,GB", index.canonicalize("York, GB"));
+            assertNull(error, index.canonicalize("yorkt"));
+
+            // Ambiguous names are suggested, but not canonicalized
+            assertEquals(error, Arrays.asList("Paris,FR", "Paris,US"), index.suggest("par", 10));
+            assertNull(error, index.canonicalize("Paris"));
+
+            // Limits, and queries that match nothing
+            assertEquals(error, Arrays.asList("Paris,FR"), index.suggest("p", 1));
+            assertEquals(error, Collections.<String>emptyList(), index.suggest("", 10));
+            assertEquals(error, Collections.<String>emptyList(), index.suggest("york\tY", 10));
+            assertNull(error, index.canonicalize(" "));
+        }
+    }
+
+    static private final int LARGE_INDEX_LINES = 200000;
+    static private final int LARGE_INDEX_LOOKUPS = 200;
+    static private final String[] COUNTRIES = {"US", "GB", "DE", "FR", "IN", "BR", "JP", "AU"};
+
+    // Checks lookups in an index the size of OpenWeatherMap's city list against a linear scan,
+    // and logs how long they take.
+    public void testLargeIndex() throws IOException {
+        Random random = new Random(42);
+        ArrayList<String> lines = new ArrayList<String>(LARGE_INDEX_LINES);
+        for (int i = 0; i < LARGE_INDEX_LINES; i++) {
+            char[] name = new char[4 + random.nextInt(6)];
+            for (int j = 0; j < name.length; j++) {
+                // Few letters, so names repeat and prefixes have many matches
+                name[j] = (char) ('a' + random.nextInt(8));
+            }
+            String key = new String(name);
+            String city = Character.toUpperCase(name[0]) + key.substring(1);
+            lines.add(key + "\t" + city + "," + COUNTRIES[random.nextInt(COUNTRIES.length)]);
+        }
+        // Tab sorts before the letters, so this sorts by key first, like the index
+        Collections.sort(lines);
+        String[] keys = new String[lines.size()];
+        String[] settings = new String[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            keys[i] = line.substring(0, line.indexOf('\t'));
+            settings[i] = line.substring(line.indexOf('\t') + 1);
+        }
+
+        writeIndex(lines, true);
+        long start = System.nanoTime();
+        CityIndex index = CityIndex.open(mIndexFile);
+        long openNanos = System.nanoTime() - start;
+
+        long suggestNanos = 0;
+        long canonicalizeNanos = 0;
+        for (int i = 0; i < LARGE_INDEX_LOOKUPS; i++) {
+            String key = keys[random.nextInt(keys.length)];
+            String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+
+            ArrayList<String> expectedSuggestions = new ArrayList<String>();
+            String expectedCanonical = null;
+            int exactMatches = 0;
+            for (int j = 0; j < keys.length; j++) {
+                if (keys[j].startsWith(prefix) && expectedSuggestions.size() < 5) {
+                    expectedSuggestions.add(settings[j]);
+                }
+                if (keys[j].equals(key)) {
+                    exactMatches++;
+                    expectedCanonical = settings[j];
+                }
+            }
+            if (exactMatches > 1) {
+                expectedCanonical = null;
+            }
+
+            start = System.nanoTime();
+            List<String> suggestions = index.suggest(prefix, 5);
+            suggestNanos += System.nanoTime() - start;
+            assertEquals("Error: Wrong suggestions for " + prefix, expectedSuggestions,
+                    suggestions);
+
+            start = System.nanoTime();
+            String canonical = index.canonicalize(key);
+            canonicalizeNanos += System.nanoTime() - start;
+            assertEquals("Error: Wrong canonical location for " + key, expectedCanonical,
+                    canonical);
+        }
+
+        Log.d(LOG_TAG, LARGE_INDEX_LINES + " cities: " + mIndexFile.length() / 1024
+                + "KB mapped in " + openNanos / 1000000 + "ms, suggest "
+                + suggestNanos / LARGE_INDEX_LOOKUPS / 1000 + "us, canonicalize "
+                + canonicalizeNanos / LARGE_INDEX_LOOKUPS / 1000 + "us");
+    }
+}
@@ -111,6 +111,38 @@ public class TestDb extends AndroidTestCase {
         where you can uncomment out the "createNorthPoleLocationValues" function.  You can
         also make use of the ValidateCurrentRecord function from within TestUtilities.
     */
+    // Upgrading from version 4 only adds the forecast pack table and keeps the archive, which
+    // holds weather that can't be fetched again.
+    public void testUpgradeKeepsArchive() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        // Back to the version 4 schema, which had no forecast pack table
+        db.execSQL("DROP TABLE " + WeatherContract.ForecastPackEntry.TABLE_NAME);
+        ContentValues archiveValues = TestProvider.createArchiveValues(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 1)[0];
+        archiveValues.put(WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS, 1);
+        archiveValues.put(WeatherContract.ArchiveEntry.COLUMN_SAMPLES, 1);
+        assertTrue(db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, archiveValues) != -1);
+
+        dbHelper.onUpgrade(db, 4, 5);
+
+        Cursor cursor = db.query(WeatherContract.ArchiveEntry.TABLE_NAME,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.ArchiveEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        assertTrue("Error: The upgrade lost the archive", cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+        assertEquals((long) archiveValues.getAsLong(WeatherContract.ArchiveEntry.COLUMN_DATE),
+                cursor.getLong(1));
+        cursor.close();
+        // Throws if the upgrade didn't create the table
+        cursor = db.query(WeatherContract.ForecastPackEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
     public void testLocationTable() {
         insertLocation();
     }
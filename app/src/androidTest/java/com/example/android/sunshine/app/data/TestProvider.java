@@ -16,20 +16,29 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -61,6 +70,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                ArchiveEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -160,6 +174,20 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/nearest?lat=64.7488&lon=-147.353&limit=3
+        type = mContext.getContentResolver().getType(
+                LocationEntry.buildNearestLocationsUri(64.7488, -147.353, 3));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/location
+        assertEquals("Error: the nearest locations URI should return LocationEntry.CONTENT_TYPE",
+                LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/archive/94074?start=...&end=...
+        type = mContext.getContentResolver().getType(
+                ArchiveEntry.buildArchiveLocationWithRange(testLocation, testDate, testDate));
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/archive
+        assertEquals("Error: the ArchiveEntry range URI should return ArchiveEntry.CONTENT_TYPE",
+                ArchiveEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +540,466 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    static private final int NEAREST_RECORDS_TO_INSERT = 10000;
+    static private final int NEAREST_LIMIT = 5;
+
+    // Checks the nearest locations URI against a linear scan over enough random locations to
+    // make the difference in speed show, and logs how long both took.
+    public void testNearestLocations() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NEAREST_RECORDS_TO_INSERT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, "location" + i);
+                values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                values.put(LocationEntry.COLUMN_COORD_LAT, random.nextDouble() * 180 - 90);
+                values.put(LocationEntry.COLUMN_COORD_LONG, random.nextDouble() * 360 - 180);
+                assertTrue(db.insert(LocationEntry.TABLE_NAME, null, values) != -1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+
+        double latitude = 64.7488;
+        double longitude = -147.353;
+
+        long start = System.nanoTime();
+        Cursor nearest = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationsUri(latitude, longitude, NEAREST_LIMIT),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_DISTANCE},
+                null,
+                null,
+                null
+        );
+        long nearestNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Cursor all = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                null,
+                null,
+                null
+        );
+        double[] distances = new double[all.getCount()];
+        String[] settings = new String[all.getCount()];
+        for (int i = 0; all.moveToNext(); i++) {
+            settings[i] = all.getString(0);
+            distances[i] = WeatherProvider.distanceKm(latitude, longitude,
+                    all.getDouble(1), all.getDouble(2));
+        }
+        all.close();
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < distances.length; i++) {
+            order.add(i);
+        }
+        final double[] sortDistances = distances;
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(sortDistances[lhs], sortDistances[rhs]);
+            }
+        });
+        long scanNanos = System.nanoTime() - start;
+        Log.d(LOG_TAG, "Nearest " + NEAREST_LIMIT + " of " + NEAREST_RECORDS_TO_INSERT
+                + " locations: " + nearestNanos / 1000 + "us, linear scan: "
+                + scanNanos / 1000 + "us");
+
+        assertEquals("Error: Wrong number of nearest locations",
+                NEAREST_LIMIT, nearest.getCount());
+        for (int i = 0; nearest.moveToNext(); i++) {
+            assertEquals("Error: Nearest location " + i + " doesn't match the linear scan",
+                    settings[order.get(i)], nearest.getString(0));
+            assertEquals("Error: Distance of nearest location " + i + " is wrong",
+                    distances[order.get(i)], nearest.getDouble(1), 1e-6);
+        }
+        nearest.close();
+    }
+
+    static private final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static private final long WEEK_IN_MILLIS = ArchiveEntry.DAYS_PER_WEEK * DAY_IN_MILLIS;
+
+    static ContentValues[] createArchiveValues(String locationSetting, long firstDate, int days) {
+        ContentValues[] returnContentValues = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues archiveValues = new ContentValues();
+            archiveValues.put(ArchiveEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            // Midday, so that a daylight saving change can't put two days on the same date
+            archiveValues.put(ArchiveEntry.COLUMN_DATE,
+                    firstDate + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+            archiveValues.put(ArchiveEntry.COLUMN_WEATHER_ID, 800 - i % 3);
+            archiveValues.put(ArchiveEntry.COLUMN_MIN_TEMP, 5 - i % 10);
+            archiveValues.put(ArchiveEntry.COLUMN_MAX_TEMP, 15 + i % 10);
+            archiveValues.put(ArchiveEntry.COLUMN_HUMIDITY, 50 + i % 7);
+            archiveValues.put(ArchiveEntry.COLUMN_PRESSURE, 1010 + i % 5);
+            archiveValues.put(ArchiveEntry.COLUMN_WIND_SPEED, 3 + i % 4);
+            returnContentValues[i] = archiveValues;
+        }
+        return returnContentValues;
+    }
+
+    // Archives ten weeks of days and checks that the days older than the retention period were
+    // merged into whole weeks, without losing any day.
+    public void testArchiveCompaction() {
+        int days = 10 * ArchiveEntry.DAYS_PER_WEEK;
+        long now = System.currentTimeMillis();
+        long firstDate = WeatherContract.normalizeDate(now - days * DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(ArchiveEntry.CONTENT_URI,
+                createArchiveValues(TestUtilities.TEST_LOCATION, firstDate, days));
+
+        long cutoff = ((now - ArchiveEntry.DAILY_RETENTION_DAYS * DAY_IN_MILLIS)
+                / WEEK_IN_MILLIS) * WEEK_IN_MILLIS;
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        firstDate - WEEK_IN_MILLIS, now),
+                new String[]{ArchiveEntry.COLUMN_DATE, ArchiveEntry.COLUMN_PERIOD_DAYS,
+                        ArchiveEntry.COLUMN_SAMPLES, ArchiveEntry.COLUMN_MIN_TEMP},
+                null,
+                null,
+                null
+        );
+        assertTrue("Error: Days were archived without compacting any of them",
+                cursor.getCount() < days);
+        int samples = 0;
+        while (cursor.moveToNext()) {
+            long date = cursor.getLong(0);
+            int periodDays = cursor.getInt(1);
+            if (date < cutoff) {
+                assertEquals("Error: A day older than the retention period wasn't compacted",
+                        ArchiveEntry.DAYS_PER_WEEK, periodDays);
+                assertEquals("Error: A weekly row doesn't start a week", 0, date % WEEK_IN_MILLIS);
+                assertTrue("Error: A weekly row stands for more days than a week",
+                        cursor.getInt(2) <= ArchiveEntry.DAYS_PER_WEEK);
+            } else {
+                assertEquals("Error: A day within the retention period was compacted",
+                        1, periodDays);
+            }
+            samples += cursor.getInt(2);
+        }
+        cursor.close();
+        assertEquals("Error: Compacting lost days", days, samples);
+    }
+
+    // The location table is only a cache and gets new row ids when it is recreated, which the
+    // archive mustn't depend on.
+    public void testArchiveOutlivesLocationRow() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long now = System.currentTimeMillis();
+        long firstDate = WeatherContract.normalizeDate(
+                now - ArchiveEntry.DAYS_PER_WEEK * DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(ArchiveEntry.CONTENT_URI,
+                createArchiveValues(TestUtilities.TEST_LOCATION, firstDate,
+                        ArchiveEntry.DAYS_PER_WEEK));
+
+        // Recreate the locations so that another one takes the old row id
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "other");
+        Uri otherLocationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                otherLocationValues);
+        assertEquals(ContentUris.parseId(locationUri), ContentUris.parseId(otherLocationUri));
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        firstDate, now),
+                new String[]{ArchiveEntry.COLUMN_DATE},
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Archived days were lost with the location's row",
+                ArchiveEntry.DAYS_PER_WEEK, cursor.getCount());
+        cursor.close();
+    }
+
+    // Past days move from the weather table into the archive all at once, or not at all.
+    public void testArchivePastWeather() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        // A day whose location row is gone can't be archived
+        ContentValues orphanValues = TestUtilities.createWeatherValues(locationRowId + 1);
+        orphanValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, orphanValues);
+
+        String selection = WeatherEntry.COLUMN_DATE + " <= ?";
+        String[] selectionArgs = new String[]{Long.toString(
+                TestUtilities.TEST_DATE + (BULK_INSERT_RECORDS_TO_INSERT - 1) * DAY_IN_MILLIS)};
+        int deleted = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchivingUri(), selection, selectionArgs);
+        assertEquals("Error: Days were deleted although one of them couldn't be archived",
+                0, deleted);
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Days were archived although they weren't deleted",
+                0, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId + 1)});
+        deleted = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherArchivingUri(), selection, selectionArgs);
+        assertEquals("Error: Not every past day was deleted",
+                BULK_INSERT_RECORDS_TO_INSERT, deleted);
+        cursor = mContext.getContentResolver().query(
+                // These days are old enough to be compacted into weeks
+                ArchiveEntry.buildArchiveLocationWithRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE - WEEK_IN_MILLIS,
+                        TestUtilities.TEST_DATE + BULK_INSERT_RECORDS_TO_INSERT * DAY_IN_MILLIS),
+                new String[]{ArchiveEntry.COLUMN_SAMPLES},
+                null,
+                null,
+                null
+        );
+        int samples = 0;
+        while (cursor.moveToNext()) {
+            samples += cursor.getInt(0);
+        }
+        cursor.close();
+        assertEquals("Error: Deleted days are missing from the archive",
+                BULK_INSERT_RECORDS_TO_INSERT, samples);
+    }
+
+    static private final int ARCHIVE_BENCHMARK_LOCATIONS = 50;
+    static private final int ARCHIVE_BENCHMARK_DAYS = 365;
+
+    // Archives a year of days for many locations, then logs how long that took, how big the
+    // archive ended up and how long a year's range query takes.
+    public void testArchiveYearOfData() {
+        long now = System.currentTimeMillis();
+        long firstDate = WeatherContract.normalizeDate(now - ARCHIVE_BENCHMARK_DAYS * DAY_IN_MILLIS);
+        long start = System.nanoTime();
+        for (int i = 0; i < ARCHIVE_BENCHMARK_LOCATIONS; i++) {
+            mContext.getContentResolver().bulkInsert(ArchiveEntry.CONTENT_URI,
+                    createArchiveValues("location" + i, firstDate, ARCHIVE_BENCHMARK_DAYS));
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                new String[]{ArchiveEntry._ID}, null, null, null);
+        int rows = cursor.getCount();
+        cursor.close();
+        assertTrue("Error: A year of days wasn't compacted",
+                rows < ARCHIVE_BENCHMARK_LOCATIONS * ARCHIVE_BENCHMARK_DAYS / 2);
+
+        start = System.nanoTime();
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocationWithRange("location0", firstDate, now),
+                new String[]{ArchiveEntry.COLUMN_DATE, ArchiveEntry.COLUMN_MIN_TEMP,
+                        ArchiveEntry.COLUMN_MAX_TEMP},
+                null,
+                null,
+                null
+        );
+        int rangeRows = cursor.getCount();
+        cursor.close();
+        long queryNanos = System.nanoTime() - start;
+        assertTrue("Error: The range query returned nothing", rangeRows > 0);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        long bytes = db.getPageSize() * (DatabaseUtils.longForQuery(db,
+                "PRAGMA page_count", null));
+        db.close();
+        Log.d(LOG_TAG, ARCHIVE_BENCHMARK_LOCATIONS + " locations x " + ARCHIVE_BENCHMARK_DAYS
+                + " days: archived in " + insertNanos / 1000000 + "ms as " + rows + " rows, "
+                + bytes / 1024 + "KB database, range query " + queryNanos / 1000 + "us for "
+                + rangeRows + " rows");
+    }
+
+    static private final int PACKED_BENCHMARK_READS = 200;
+
+    // Reads the forecast both ways: the packed cursor has to be the same as the rows', and the
+    // time each takes is logged for comparison.
+    public void testPackedForecast() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, locationValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        String[] projection = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                LocationEntry.COLUMN_COORD_LAT
+        };
+        // Leaves out the first day, so the start date is applied to the pack too
+        long startDate = TestUtilities.TEST_DATE + DAY_IN_MILLIS;
+        Uri rowsUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, startDate);
+        Uri packedUri = WeatherEntry.buildPackedWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, startDate);
+        String sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+
+        Cursor rows = mContext.getContentResolver().query(rowsUri, projection, null, null,
+                sortOrder);
+        Cursor packed = mContext.getContentResolver().query(packedUri, projection, null, null,
+                sortOrder);
+        assertEquals("Error: The packed forecast has a different number of days",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, packed.getCount());
+        assertEquals(rows.getCount(), packed.getCount());
+        for (int i = 0; i < projection.length; i++) {
+            assertEquals(rows.getColumnName(i), packed.getColumnName(i));
+        }
+        while (rows.moveToNext()) {
+            assertTrue(packed.moveToNext());
+            for (int i = 0; i < projection.length; i++) {
+                String error = "Error: The packed forecast differs in " + projection[i];
+                if (projection[i].equals(WeatherEntry.COLUMN_SHORT_DESC)
+                        || projection[i].equals(LocationEntry.COLUMN_LOCATION_SETTING)) {
+                    assertEquals(error, rows.getString(i), packed.getString(i));
+                } else {
+                    // SQLite and the pack format doubles differently as strings
+                    assertEquals(error, rows.getDouble(i), packed.getDouble(i));
+                }
+            }
+        }
+        rows.close();
+        packed.close();
+
+        long rowsNanos = timeForecastReads(rowsUri, projection, sortOrder);
+        long packedNanos = timeForecastReads(packedUri, projection, sortOrder);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        long packBytes = DatabaseUtils.longForQuery(db,
+                "SELECT LENGTH(" + WeatherContract.ForecastPackEntry.COLUMN_FORECAST + ") FROM "
+                        + WeatherContract.ForecastPackEntry.TABLE_NAME, null);
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        db.close();
+        Log.d(LOG_TAG, BULK_INSERT_RECORDS_TO_INSERT + " days: rows read in "
+                + rowsNanos / PACKED_BENCHMARK_READS / 1000 + "us, packed read in "
+                + packedNanos / PACKED_BENCHMARK_READS / 1000 + "us, " + packBytes
+                + " byte pack, " + pages + " database pages");
+
+        // Once the days are gone, so is the pack
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        packed = mContext.getContentResolver().query(packedUri, projection, null, null,
+                sortOrder);
+        assertEquals("Error: The packed forecast outlived its days", 0, packed.getCount());
+        packed.close();
+    }
+
+    // A batch of writes to one location repacks that location's forecast, and only that one.
+    public void testBatchRepacksChangedLocation() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocationValues = TestUtilities.createNorthPoleLocationValues();
+        otherLocationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "other");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocationValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(otherLocationRowId));
+
+        // Mark the other location's pack, which a repack would overwrite
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.execSQL("UPDATE " + WeatherContract.ForecastPackEntry.TABLE_NAME + " SET " +
+                WeatherContract.ForecastPackEntry.COLUMN_FORECAST + " = X'00' WHERE " +
+                WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY + " = " + otherLocationRowId);
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 100 + i);
+            operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withSelection(WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                    WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{Long.toString(locationRowId), Long.toString(
+                                    WeatherContract.normalizeDate(
+                                            TestUtilities.TEST_DATE + i * DAY_IN_MILLIS))})
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        Cursor packed = mContext.getContentResolver().query(
+                WeatherEntry.buildPackedWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, packed.getCount());
+        for (int i = 0; packed.moveToNext(); i++) {
+            assertEquals("Error: The changed location's pack wasn't updated",
+                    100.0 + i, packed.getDouble(0));
+        }
+        packed.close();
+
+        long untouchedPackBytes = DatabaseUtils.longForQuery(db,
+                "SELECT LENGTH(" + WeatherContract.ForecastPackEntry.COLUMN_FORECAST + ") FROM "
+                        + WeatherContract.ForecastPackEntry.TABLE_NAME + " WHERE "
+                        + WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY + " = "
+                        + otherLocationRowId, null);
+        dbHelper.close();
+        assertEquals("Error: An unchanged location was repacked", 1, untouchedPackBytes);
+    }
+
+    // A batch that fails part way, like a push delta for a day that isn't stored, writes nothing.
+    public void testFailedBatchRollsBack() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+        String selection = WeatherEntry.COLUMN_DATE + " = ?";
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withValues(values)
+                .withSelection(selection, new String[]{Long.toString(
+                        WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .withExpectedCount(1)
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(WeatherEntry.CONTENT_URI)
+                .withValues(values)
+                .withSelection(selection, new String[]{Long.toString(
+                        WeatherContract.normalizeDate(TestUtilities.TEST_DATE + DAY_IN_MILLIS))})
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: An update of a day that isn't stored didn't fail the batch");
+        } catch (OperationApplicationException e) {
+            // expected
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: A failed batch was partly applied", 75.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    private long timeForecastReads(Uri uri, String[] projection, String sortOrder) {
+        long start = System.nanoTime();
+        for (int i = 0; i < PACKED_BENCHMARK_READS; i++) {
+            Cursor cursor = mContext.getContentResolver().query(uri, projection, null, null,
+                    sortOrder);
+            // Reading every row is part of the cost
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
 }
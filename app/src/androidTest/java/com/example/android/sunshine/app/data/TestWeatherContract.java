@@ -42,4 +42,40 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testBuildNearestLocations() {
+        Uri nearestUri = WeatherContract.LocationEntry.buildNearestLocationsUri(64.7488, -147.353, 5);
+        assertEquals("Error: Latitude not read back from the nearest locations Uri",
+                64.7488, WeatherContract.LocationEntry.getLatitudeFromUri(nearestUri));
+        assertEquals("Error: Longitude not read back from the nearest locations Uri",
+                -147.353, WeatherContract.LocationEntry.getLongitudeFromUri(nearestUri));
+        assertEquals("Error: Limit not read back from the nearest locations Uri",
+                5, WeatherContract.LocationEntry.getLimitFromUri(nearestUri));
+    }
+
+    public void testInvalidNearestLocations() {
+        Uri nearestUri = WeatherContract.LocationEntry.CONTENT_URI.buildUpon()
+                .appendPath(WeatherContract.LocationEntry.PATH_NEAREST)
+                .appendQueryParameter(WeatherContract.LocationEntry.PARAM_LAT, "north")
+                .appendQueryParameter(WeatherContract.LocationEntry.PARAM_LON, "200")
+                .build();
+        try {
+            WeatherContract.LocationEntry.getLatitudeFromUri(nearestUri);
+            fail("Error: A latitude that isn't a number was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            WeatherContract.LocationEntry.getLongitudeFromUri(nearestUri);
+            fail("Error: A longitude out of range was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            WeatherContract.LocationEntry.getLimitFromUri(nearestUri);
+            fail("Error: A missing limit was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }
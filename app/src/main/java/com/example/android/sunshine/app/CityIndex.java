@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The cities OpenWeatherMap knows about, for suggesting locations without going to the network.
+ *
+ * The index is the {@link #ASSET_NAME} asset, stored uncompressed so it can be memory-mapped
+ * instead of read: one line per city, "key\tlocation setting\n", sorted by the bytes of the
+ * key.  The key is the city name folded by {@link #fold(String)} and the location setting is the
+ * canonical "City,CC" query for it.  A prefix lookup is a binary search over the mapped bytes,
+ * so it touches a few pages whatever the size of the index, and nothing is kept on the heap.
+ */
+public class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    private static final String ASSET_NAME = "cities.idx";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte FIELD_SEPARATOR = '\t';
+    private static final byte LINE_SEPARATOR = '\n';
+
+    private static CityIndex sInstance;
+
+    private final MappedByteBuffer mIndex;
+    private final int mSize;
+
+    private CityIndex(MappedByteBuffer index) {
+        mIndex = index;
+        mSize = index.capacity();
+    }
+
+    /**
+     * @return the index, or null if the asset couldn't be mapped
+     */
+    public static synchronized CityIndex getInstance(Context context) {
+        if (sInstance == null) {
+            try {
+                AssetFileDescriptor fd = context.getAssets().openFd(ASSET_NAME);
+                sInstance = map(fd.createInputStream(), fd.getStartOffset(), fd.getLength());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Couldn't map the city index", e);
+                return null;
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Maps an index that isn't the asset, e.g. one built by a test.
+     */
+    static CityIndex open(File file) throws IOException {
+        return map(new FileInputStream(file), 0, file.length());
+    }
+
+    private static CityIndex map(FileInputStream in, long offset, long length)
+            throws IOException {
+        try {
+            return new CityIndex(in.getChannel().map(FileChannel.MapMode.READ_ONLY, offset,
+                    length));
+        } finally {
+            // The mapping stays valid once the file is closed
+            in.close();
+        }
+    }
+
+    /**
+     * Folds a city name the way the index keys are folded: accents removed, lower case.
+     */
+    static String fold(String name) {
+        return Normalizer.normalize(name, Normalizer.Form.NFD)
+                .replaceAll("\\p{InCombiningDiacriticalMarks}+", "")
+                .toLowerCase(Locale.US)
+                .trim();
+    }
+
+    /**
+     * @param query What the user typed.  Only the part before any comma is matched.
+     * @param limit The most suggestions to return
+     * @return the location settings of the cities whose names start with the query, in name
+     * order
+     */
+    public List<String> suggest(String query, int limit) {
+        long start = SystemClock.elapsedRealtime();
+        ArrayList<String> suggestions = new ArrayList<String>();
+        byte[] prefix = fold(cityPart(query)).getBytes(UTF_8);
+        if (prefix.length == 0) {
+            return suggestions;
+        }
+        for (int line = findFirstLineNotBefore(prefix);
+             line < mSize && suggestions.size() < limit && keyStartsWith(line, prefix);
+             line = nextLineStart(line + 1)) {
+            suggestions.add(readLocationSetting(line));
+        }
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "suggest(" + query + "): " + suggestions.size() + " in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        return suggestions;
+    }
+
+    /**
+     * @return the one location setting for the city named exactly like the query, or null if
+     * there is no such city or the name is ambiguous
+     */
+    public String canonicalize(String query) {
+        byte[] key = fold(cityPart(query)).getBytes(UTF_8);
+        if (key.length == 0) {
+            return null;
+        }
+        String match = null;
+        for (int line = findFirstLineNotBefore(key);
+             line < mSize && compareKey(line, key) == 0;
+             line = nextLineStart(line + 1)) {
+            if (match != null) {
+                return null;
+            }
+            match = readLocationSetting(line);
+        }
+        return match;
+    }
+
+    private static String cityPart(String query) {
+        int comma = query.indexOf(',');
+        return comma < 0 ? query : query.substring(0, comma);
+    }
+
+    /**
+     * @return the start of the first line whose key isn't less than the given bytes, or the
+     * size of the index if there is none
+     */
+    private int findFirstLineNotBefore(byte[] key) {
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int line = nextLineStart(mid);
+            if (line >= mSize || compareKey(line, key) >= 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return nextLineStart(lo);
+    }
+
+    /**
+     * @return the start of the first line starting at or after the given offset
+     */
+    private int nextLineStart(int offset) {
+        if (offset == 0) {
+            return 0;
+        }
+        int i = offset - 1;
+        while (i < mSize && mIndex.get(i) != LINE_SEPARATOR) {
+            i++;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Compares the key of a line with the given bytes, as unsigned bytes.
+     */
+    private int compareKey(int line, byte[] key) {
+        int i = 0;
+        while (true) {
+            byte b = mIndex.get(line + i);
+            boolean keyEnded = b == FIELD_SEPARATOR;
+            if (i == key.length) {
+                return keyEnded ? 0 : 1;
+            }
+            if (keyEnded) {
+                return -1;
+            }
+            int difference = (b & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+            i++;
+        }
+    }
+
+    private boolean keyStartsWith(int line, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            // A prefix running past the key mustn't match the location setting after it
+            byte b = mIndex.get(line + i);
+            if (b == FIELD_SEPARATOR || b != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readLocationSetting(int line) {
+        int start = line;
+        while (mIndex.get(start) != FIELD_SEPARATOR) {
+            start++;
+        }
+        start++;
+        int end = start;
+        while (end < mSize && mIndex.get(end) != LINE_SEPARATOR) {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mIndex.get(start + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+}
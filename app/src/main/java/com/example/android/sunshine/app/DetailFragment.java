@@ -16,9 +16,11 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -44,7 +46,8 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 /**
  * A placeholder fragment containing a simple view.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        ForecastSnapshotStore.Listener {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -55,6 +58,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    private boolean mBindingFinished;
 
     private static final int DETAIL_LOADER = 0;
 
@@ -131,7 +135,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private void finishCreatingMenu(Menu menu) {
         // Retrieve the share menu item
         MenuItem menuItem = menu.findItem(R.id.action_share);
-        menuItem.setIntent(createShareForecastIntent());
+        if ( null != menuItem ) {
+            menuItem.setIntent(createShareForecastIntent());
+        }
     }
 
     @Override
@@ -153,10 +159,32 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        // The forecast list has usually loaded this day already, in which case we can render
+        // right away and the snapshot listener keeps the day current.  We only query when the
+        // snapshot misses the day, or predates the last sync, e.g. when the list's loader is
+        // stopped behind this activity.
+        ForecastSnapshot.Day day = findCurrentDayInSnapshot();
+        if ( null != day ) {
+            bindDay(day);
+            finishBinding();
+        } else {
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        ForecastSnapshotStore.addListener(this);
+    }
+
+    @Override
+    public void onStop() {
+        ForecastSnapshotStore.removeListener(this);
+        super.onStop();
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -164,8 +192,59 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            ForecastSnapshot.Day day = findCurrentDayInSnapshot();
+            if ( null != day ) {
+                // Don't let a query for the old location deliver over this
+                getLoaderManager().destroyLoader(DETAIL_LOADER);
+                bindDay(day);
+                refreshShareIntent();
+            } else {
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            }
+        }
+    }
+
+    @Override
+    public void onSnapshotPublished(ForecastSnapshot snapshot) {
+        // Newer data for the day we're showing, e.g. after a sync
+        ForecastSnapshot.Day day = findDayInSnapshot(snapshot);
+        if ( null != day && null != getView() ) {
+            bindDay(day);
+            refreshShareIntent();
+        }
+    }
+
+    /**
+     * Looks up the day being shown in the latest snapshot of the forecast list, as long as that
+     * was loaded after the last sync.
+     *
+     * @return the day, or null if it has to be queried
+     */
+    private ForecastSnapshot.Day findCurrentDayInSnapshot() {
+        if ( null == mUri ) {
+            return null;
+        }
+        ForecastSnapshot snapshot = ForecastSnapshotStore.get(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri));
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
+        long lastSync = prefs.getLong(getString(R.string.pref_last_sync), 0);
+        if ( null == snapshot || snapshot.getLoadedAt() < lastSync ) {
+            return null;
+        }
+        return findDayInSnapshot(snapshot);
+    }
+
+    /**
+     * Looks up the day being shown in a snapshot of the forecast list.
+     *
+     * @return the day, or null if the snapshot doesn't have it
+     */
+    private ForecastSnapshot.Day findDayInSnapshot(ForecastSnapshot snapshot) {
+        if ( null == mUri || !snapshot.getLocationSetting().equals(
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(mUri)) ) {
+            return null;
         }
+        return snapshot.getDay(WeatherContract.WeatherEntry.getDateFromUri(mUri));
     }
 
     @Override
@@ -192,78 +271,100 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
-
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
+            bindDay(new ForecastSnapshot.Day(
+                    data.getLong(COL_WEATHER_DATE),
+                    data.getInt(COL_WEATHER_CONDITION_ID),
+                    data.getDouble(COL_WEATHER_MAX_TEMP),
+                    data.getDouble(COL_WEATHER_MIN_TEMP),
+                    data.getFloat(COL_WEATHER_HUMIDITY),
+                    data.getFloat(COL_WEATHER_PRESSURE),
+                    data.getFloat(COL_WEATHER_WIND_SPEED),
+                    data.getFloat(COL_WEATHER_DEGREES)));
+        }
+        if ( mBindingFinished ) {
+            refreshShareIntent();
+        } else {
+            finishBinding();
+        }
+    }
 
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+    private void bindDay(ForecastSnapshot.Day day) {
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        // Read weather condition ID
+        int weatherId = day.mWeatherId;
 
+        if ( Utility.usingLocalGraphics(getActivity()) ) {
+            mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                    .error(Utility.getArtResourceForWeatherCondition(weatherId))
+                    .crossFade()
+                    .into(mIconView);
         }
+
+        // Update views for day of week and date
+        long date = day.mDate;
+        String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
+        mDateView.setText(dateText);
+
+        // Get description from weather condition ID
+        String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
+        mDescriptionView.setText(description);
+        mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
+
+        // Update view for high temperature
+        double high = day.mHigh;
+        String highString = Utility.formatTemperature(getActivity(), high);
+        mHighTempView.setText(highString);
+        mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
+
+        // Update view for low temperature
+        double low = day.mLow;
+        String lowString = Utility.formatTemperature(getActivity(), low);
+        mLowTempView.setText(lowString);
+        mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
+
+        // Update view for humidity
+        float humidity = day.mHumidity;
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
+        mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
+        mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
+
+        // Update view for wind speed and direction
+        float windSpeedStr = day.mWindSpeed;
+        float windDirStr = day.mDegrees;
+        mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
+        mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
+        mWindLabelView.setContentDescription(mWindView.getContentDescription());
+
+        // Update view for pressure
+        float pressure = day.mPressure;
+        mPressureView.setText(getString(R.string.format_pressure, pressure));
+        mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
+        mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    }
+
+    /**
+     * Sets up the toolbar and starts the postponed enter transition.  Called once, after the
+     * first attempt at showing data, whether or not there was any.
+     */
+    private void finishBinding() {
+        mBindingFinished = true;
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -287,6 +388,18 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         }
     }
 
+    /**
+     * Points the share action at the forecast currently shown, after it changed in place.
+     */
+    private void refreshShareIntent() {
+        Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
+        if ( !mTransitionAnimation && null != toolbarView ) {
+            finishCreatingMenu(toolbarView.getMenu());
+        } else {
+            getActivity().supportInvalidateOptionsMenu();
+        }
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) { }
 }
\ No newline at end of file
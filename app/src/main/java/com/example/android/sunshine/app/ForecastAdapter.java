@@ -32,23 +32,29 @@ import android.widget.TextView;
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.HashMap;
+
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.ItemIdIndex {
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
 
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // Maps each row's stable id (its date) to its position; rebuilt once per swapCursor.
+    final private HashMap<Long, Integer> mPositionsById = new HashMap<Long, Integer>();
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
     final private ItemChoiceManager mICM;
+    private ForecastJankMonitor mJankMonitor;
 
     /**
      * Cache of the children views for a forecast list item.
@@ -88,6 +94,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Must be set before any observer is registered, including the ItemChoiceManager's
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -103,6 +111,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     @Override
     public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
         if ( viewGroup instanceof RecyclerView ) {
+            long start = System.nanoTime();
             int layoutId = -1;
             switch (viewType) {
                 case VIEW_TYPE_TODAY: {
@@ -116,7 +125,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             }
             View view = LayoutInflater.from(viewGroup.getContext()).inflate(layoutId, viewGroup, false);
             view.setFocusable(true);
-            return new ForecastAdapterViewHolder(view);
+            ForecastAdapterViewHolder vh = new ForecastAdapterViewHolder(view);
+            if ( null != mJankMonitor ) {
+                mJankMonitor.recordInflate(viewType, System.nanoTime() - start);
+            }
+            return vh;
         } else {
             throw new RuntimeException("Not bound to RecyclerView");
         }
@@ -124,12 +137,14 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
+        long start = System.nanoTime();
         mCursor.moveToPosition(position);
         int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
         int defaultImage;
         boolean useLongToday;
+        int viewType = getItemViewType(position);
 
-        switch (getItemViewType(position)) {
+        switch (viewType) {
             case VIEW_TYPE_TODAY:
                 defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
                 useLongToday = true;
@@ -141,6 +156,12 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
         if ( Utility.usingLocalGraphics(mContext) ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
+        } else if ( !useLongToday ) {
+            // Same request the ForecastArtPreloader issues, so this is usually a memory cache hit
+            ForecastArtPreloader.artRequest(mContext, weatherId)
+                    .error(defaultImage)
+                    .crossFade()
+                    .into(forecastAdapterViewHolder.mIconView);
         } else {
             Glide.with(mContext)
                     .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
@@ -183,6 +204,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+
+        if ( null != mJankMonitor ) {
+            mJankMonitor.recordBind(viewType, System.nanoTime() - start);
+        }
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -193,6 +218,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mICM.onSaveInstanceState(outState);
     }
 
+    public void setJankMonitor(ForecastJankMonitor jankMonitor) {
+        mJankMonitor = jankMonitor;
+    }
+
     public void setUseTodayLayout(boolean useTodayLayout) {
         mUseTodayLayout = useTodayLayout;
     }
@@ -201,6 +230,18 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mICM.getSelectedItemPosition();
     }
 
+    /**
+     * @return the condition id of a row whose art is worth preloading, or -1 if there isn't
+     * one.  Only future day rows are preloaded since they all share the same icon size.
+     */
+    int getPreloadWeatherId(int position) {
+        if ( getItemViewType(position) != VIEW_TYPE_FUTURE_DAY ||
+                null == mCursor || !mCursor.moveToPosition(position) ) {
+            return -1;
+        }
+        return mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+    }
+
     @Override
     public int getItemViewType(int position) {
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
@@ -212,8 +253,32 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return mCursor.getCount();
     }
 
+    /*
+        Each location has exactly one row per day, so the normalized date is a stable id that
+        survives a sync, unlike the row _ID which changes whenever the row is replaced.
+     */
+    @Override
+    public long getItemId(int position) {
+        if ( null == mCursor || !mCursor.moveToPosition(position) ) return RecyclerView.NO_ID;
+        return mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+    }
+
+    @Override
+    public int getPositionForItemId(long id) {
+        Integer position = mPositionsById.get(id);
+        return null == position ? RecyclerView.NO_POSITION : position;
+    }
+
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
+        // The index has to be ready before notifyDataSetChanged, since the ItemChoiceManager
+        // restores its checked positions from it as soon as it is notified.
+        mPositionsById.clear();
+        if ( null != mCursor ) {
+            for ( int i = 0; mCursor.moveToPosition(i); i++ ) {
+                mPositionsById.put(mCursor.getLong(ForecastFragment.COL_WEATHER_DATE), i);
+            }
+        }
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
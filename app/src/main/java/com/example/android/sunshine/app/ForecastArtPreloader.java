@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * {@link ForecastArtPreloader} loads the remote art for the rows just past the edge of the
+ * forecast list into Glide's memory cache while the list scrolls, so that rows come into view
+ * with their art already decoded instead of popping it in.
+ *
+ * Preloads are only useful if they produce the same memory cache key as the real load, so both
+ * go through {@link #artRequest(Context, int)}.
+ */
+public class ForecastArtPreloader extends RecyclerView.OnScrollListener {
+    // How many rows past the visible ones to preload
+    private static final int PRELOAD_AHEAD = 5;
+
+    private final Context mContext;
+    private final ForecastAdapter mAdapter;
+    private final LinearLayoutManager mLayoutManager;
+
+    // Targets are recycled round-robin; clearing one hands its bitmap over to the memory cache.
+    private final PreloadTarget[] mTargets = new PreloadTarget[PRELOAD_AHEAD];
+    private int mNextTarget;
+
+    // Range of positions [start, end) preloaded most recently, so we don't ask twice.  Only valid
+    // until the adapter's data changes, e.g. after a sync or an art pack change.
+    private int mPreloadedStart;
+    private int mPreloadedEnd;
+
+    public ForecastArtPreloader(Context context, ForecastAdapter adapter,
+                                LinearLayoutManager layoutManager) {
+        mContext = context;
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        int size = getListIconSize(context);
+        for (int i = 0; i < PRELOAD_AHEAD; i++) {
+            mTargets[i] = new PreloadTarget(size, false);
+        }
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                // The same positions may hold other conditions now
+                mPreloadedStart = 0;
+                mPreloadedEnd = 0;
+            }
+        });
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || Utility.usingLocalGraphics(mContext)) {
+            return;
+        }
+        if (dy >= 0) {
+            preload(last + 1, last + 1 + PRELOAD_AHEAD);
+        } else {
+            preload(first - PRELOAD_AHEAD, first);
+        }
+    }
+
+    private void preload(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(mAdapter.getItemCount(), end);
+        for (int position = start; position < end; position++) {
+            if (position >= mPreloadedStart && position < mPreloadedEnd) {
+                continue;
+            }
+            int weatherId = mAdapter.getPreloadWeatherId(position);
+            if (weatherId == -1) {
+                continue;
+            }
+            PreloadTarget target = mTargets[mNextTarget];
+            mNextTarget = (mNextTarget + 1) % PRELOAD_AHEAD;
+            Glide.clear(target);
+            artRequest(mContext, weatherId).into(target);
+        }
+        mPreloadedStart = start;
+        mPreloadedEnd = end;
+    }
+
+    /**
+     * Builds the Glide request for a future-day row icon.  The size and transformation are
+     * fixed so that bound rows and preloads share a memory cache entry.
+     *
+     * @param context Context used for Glide and to read the art pack preference
+     * @param weatherId from OpenWeatherMap API response
+     */
+    static DrawableRequestBuilder<String> artRequest(Context context, int weatherId) {
+        return artRequest(context, Utility.getArtUrlForWeatherCondition(context, weatherId));
+    }
+
+    private static DrawableRequestBuilder<String> artRequest(Context context, String url) {
+        int size = getListIconSize(context);
+        return Glide.with(context)
+                .load(url)
+                .override(size, size)
+                .fitCenter();
+    }
+
+    /**
+     * Loads the list art for every distinct condition into the memory cache.  Meant to be called
+     * right after a sync, from any thread, so the next time the list is shown it doesn't wait
+     * on the network.
+     *
+     * @param context Context used for Glide and to read the art pack preference
+     * @param weatherIds condition ids returned by OpenWeatherMap
+     */
+    public static void warmConditionArt(Context context, Collection<Integer> weatherIds) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final HashSet<String> urls = new HashSet<String>();
+        for (int weatherId : weatherIds) {
+            String url = Utility.getArtUrlForWeatherCondition(appContext, weatherId);
+            if (null != url) {
+                urls.add(url);
+            }
+        }
+        // Glide targets have to be used from the main thread
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                int size = getListIconSize(appContext);
+                for (String url : urls) {
+                    artRequest(appContext, url).into(new PreloadTarget(size, true));
+                }
+            }
+        });
+    }
+
+    private static int getListIconSize(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+    }
+
+    /**
+     * Target that only holds on to its resource until it is cleared (or, for one-shot warm up
+     * loads, until the load finishes), at which point Glide moves it to the memory cache.
+     */
+    private static class PreloadTarget extends SimpleTarget<GlideDrawable> {
+        private final boolean mReleaseWhenReady;
+
+        PreloadTarget(int size, boolean releaseWhenReady) {
+            super(size, size);
+            mReleaseWhenReady = releaseWhenReady;
+        }
+
+        @Override
+        public void onResourceReady(GlideDrawable resource,
+                                    GlideAnimation<? super GlideDrawable> glideAnimation) {
+            if (mReleaseWhenReady) {
+                // Clearing from inside the callback isn't allowed, so do it right after
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Glide.clear(PreloadTarget.this);
+                    }
+                });
+            }
+        }
+    }
+}
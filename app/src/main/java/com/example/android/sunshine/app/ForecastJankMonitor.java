@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ForecastJankMonitor} keeps histograms of how long the forecast list spends on each
+ * frame while it scrolls, and of the adapter work done inside those frames: inflating and
+ * binding rows (per view type) and running the scroll listeners.
+ *
+ * The histograms can be read with {@code adb shell dumpsys activity top}, which reaches
+ * {@link #dump(String, PrintWriter)} through the ForecastFragment.  Everything here runs on the
+ * main thread.
+ */
+public class ForecastJankMonitor extends RecyclerView.OnScrollListener {
+
+    private final Histogram mFrames = new Histogram("Frame interval while scrolling");
+    private final Histogram mScrollListeners = new Histogram("Scroll listeners");
+    private final Histogram[] mInflates = {
+            new Histogram("Inflate today"),
+            new Histogram("Inflate future day")
+    };
+    private final Histogram[] mBinds = {
+            new Histogram("Bind today"),
+            new Histogram("Bind future day")
+    };
+
+    private boolean mScrolling;
+    // Typed as Object so this class still loads on devices without Choreographer
+    private Object mFrameCallback;
+
+    /**
+     * @param viewType one of ForecastAdapter's view types
+     * @param nanos time spent in onCreateViewHolder
+     */
+    void recordInflate(int viewType, long nanos) {
+        mInflates[viewType].record(nanos);
+    }
+
+    /**
+     * @param viewType one of ForecastAdapter's view types
+     * @param nanos time spent in onBindViewHolder
+     */
+    void recordBind(int viewType, long nanos) {
+        mBinds[viewType].record(nanos);
+    }
+
+    /**
+     * @param nanos time spent in a single onScrolled callback
+     */
+    void recordScrollListener(long nanos) {
+        mScrollListeners.record(nanos);
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        boolean scrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+        // Choreographer only exists on Jelly Bean and up; frame timings are skipped before that
+        if (scrolling != mScrolling && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mScrolling = scrolling;
+            if (scrolling) {
+                startFrameCallbacks();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void startFrameCallbacks() {
+        if (null == mFrameCallback) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                private long mLastFrameTime;
+
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    if (mLastFrameTime != 0) {
+                        mFrames.record(frameTimeNanos - mLastFrameTime);
+                    }
+                    if (mScrolling) {
+                        mLastFrameTime = frameTimeNanos;
+                        Choreographer.getInstance().postFrameCallback(this);
+                    } else {
+                        // Don't count the idle time between two scrolls as a frame
+                        mLastFrameTime = 0;
+                    }
+                }
+            };
+        }
+        Choreographer.FrameCallback callback = (Choreographer.FrameCallback) mFrameCallback;
+        // The previous scroll's callback may still be pending; never run two chains at once
+        Choreographer.getInstance().removeFrameCallback(callback);
+        Choreographer.getInstance().postFrameCallback(callback);
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix); writer.println("Forecast list timings (ms):");
+        String innerPrefix = prefix + "  ";
+        mFrames.dump(innerPrefix, writer);
+        mScrollListeners.dump(innerPrefix, writer);
+        for (Histogram histogram : mInflates) histogram.dump(innerPrefix, writer);
+        for (Histogram histogram : mBinds) histogram.dump(innerPrefix, writer);
+        writer.print(prefix); writer.print("Time to first frame: ");
+        writer.print(StartupMetrics.getTimeToFirstFrame()); writer.println("ms");
+        writer.print(prefix); writer.print("Time to first forecast row: ");
+        writer.print(StartupMetrics.getTimeToFirstForecastRow()); writer.println("ms");
+    }
+
+    /**
+     * Counts durations into fixed millisecond buckets, so recording never allocates.
+     */
+    static class Histogram {
+        // Upper bounds (exclusive) of each bucket; the last bucket holds everything slower.
+        // 16ms and 33ms are one and two frames at 60fps.
+        private static final long[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 33, 50, 100};
+
+        private final String mName;
+        private final int[] mCounts = new int[BUCKET_BOUNDS_MS.length + 1];
+        private int mTotalCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        Histogram(String name) {
+            mName = name;
+        }
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+            mTotalCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        void dump(String prefix, PrintWriter writer) {
+            writer.print(prefix); writer.print(mName); writer.print(": count=");
+            writer.print(mTotalCount);
+            if (mTotalCount > 0) {
+                writer.print(" avg=");
+                writer.print(TimeUnit.NANOSECONDS.toMicros(mTotalNanos / mTotalCount) / 1000f);
+                writer.print(" max=");
+                writer.print(TimeUnit.NANOSECONDS.toMicros(mMaxNanos) / 1000f);
+            }
+            writer.println();
+            if (mTotalCount == 0) {
+                return;
+            }
+            long lower = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] > 0) {
+                    writer.print(prefix); writer.print("  [");
+                    writer.print(lower);
+                    writer.print(", ");
+                    writer.print(i < BUCKET_BOUNDS_MS.length ? Long.toString(BUCKET_BOUNDS_MS[i]) : "inf");
+                    writer.print("): ");
+                    writer.println(mCounts[i]);
+                }
+                if (i < BUCKET_BOUNDS_MS.length) {
+                    lower = BUCKET_BOUNDS_MS[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+
+/**
+ * An immutable copy of the forecast for one location, as last loaded by the
+ * {@link ForecastFragment}.  Snapshots are shared through {@link ForecastSnapshotStore} so that
+ * the detail pane can render a day without querying the database again.
+ */
+public final class ForecastSnapshot {
+
+    /**
+     * Everything the detail pane shows for a single day.
+     */
+    public static final class Day {
+        public final long mDate;
+        public final int mWeatherId;
+        public final double mHigh;
+        public final double mLow;
+        public final float mHumidity;
+        public final float mPressure;
+        public final float mWindSpeed;
+        public final float mDegrees;
+
+        public Day(long date, int weatherId, double high, double low, float humidity,
+                   float pressure, float windSpeed, float degrees) {
+            mDate = date;
+            mWeatherId = weatherId;
+            mHigh = high;
+            mLow = low;
+            mHumidity = humidity;
+            mPressure = pressure;
+            mWindSpeed = windSpeed;
+            mDegrees = degrees;
+        }
+    }
+
+    private final String mLocationSetting;
+    private final long mVersion;
+    // When the cursor this was copied from was loaded, in System.currentTimeMillis() terms
+    private final long mLoadedAt;
+    // Sorted by ascending date, like the forecast list
+    private final Day[] mDays;
+
+    private ForecastSnapshot(String locationSetting, long version, long loadedAt, Day[] days) {
+        mLocationSetting = locationSetting;
+        mVersion = version;
+        mLoadedAt = loadedAt;
+        mDays = days;
+    }
+
+    /**
+     * Copies a cursor using {@link ForecastFragment}'s projection, sorted by ascending date.
+     */
+    static ForecastSnapshot fromForecastCursor(String locationSetting, long version, Cursor cursor) {
+        Day[] days = new Day[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            days[i] = new Day(
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                    cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY),
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE),
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED),
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES));
+        }
+        return new ForecastSnapshot(locationSetting, version, System.currentTimeMillis(), days);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * @return a number that increases every time a new snapshot is published for any location
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return when the forecast was loaded, in {@link System#currentTimeMillis()} terms
+     */
+    public long getLoadedAt() {
+        return mLoadedAt;
+    }
+
+    public int getDayCount() {
+        return mDays.length;
+    }
+
+    public Day getDayAt(int index) {
+        return mDays[index];
+    }
+
+    /**
+     * @param date A normalized date, as stored in the database
+     * @return the forecast for that day, or null if this snapshot doesn't contain it
+     */
+    public Day getDay(long date) {
+        int low = 0;
+        int high = mDays.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midDate = mDays[mid].mDate;
+            if (midDate < date) {
+                low = mid + 1;
+            } else if (midDate > date) {
+                high = mid - 1;
+            } else {
+                return mDays[mid];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+
+/**
+ * In-process store of the latest {@link ForecastSnapshot} for the most recently used locations.
+ * The {@link ForecastFragment} publishes a snapshot every time its loader delivers, and the
+ * {@link DetailFragment} renders from it instead of running its own query, as long as the
+ * snapshot has the day and was loaded after the last sync.
+ *
+ * All methods must be called from the main thread, which is where loaders deliver.
+ */
+public class ForecastSnapshotStore {
+
+    public interface Listener {
+        void onSnapshotPublished(ForecastSnapshot snapshot);
+    }
+
+    // Users rarely switch between more than a couple of locations
+    private static final int MAX_LOCATIONS = 4;
+
+    private static final LruCache<String, ForecastSnapshot> sSnapshots =
+            new LruCache<String, ForecastSnapshot>(MAX_LOCATIONS);
+    private static final ArrayList<Listener> sListeners = new ArrayList<Listener>();
+    private static long sLastVersion;
+
+    private ForecastSnapshotStore() {
+    }
+
+    /**
+     * Replaces the snapshot for a location with a copy of the given forecast cursor, and tells
+     * the listeners about it.
+     *
+     * @param locationSetting The location the cursor was loaded for
+     * @param cursor A cursor with {@link ForecastFragment}'s projection
+     */
+    static ForecastSnapshot publish(String locationSetting, Cursor cursor) {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.fromForecastCursor(locationSetting, ++sLastVersion, cursor);
+        sSnapshots.put(locationSetting, snapshot);
+        for (int i = sListeners.size() - 1; i >= 0; i--) {
+            sListeners.get(i).onSnapshotPublished(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the latest snapshot for the location, or null if there isn't one in memory
+     */
+    public static ForecastSnapshot get(String locationSetting) {
+        return sSnapshots.get(locationSetting);
+    }
+
+    public static void addListener(Listener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+}
@@ -15,15 +15,13 @@
  */
 package com.example.android.sunshine.app;
 
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
+import com.example.android.sunshine.app.sync.PushSyncIntentService;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 
 public class GcmBroadcastReceiver extends BroadcastReceiver {
@@ -33,9 +31,6 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
     private static final String EXTRA_WEATHER = "weather";
     private static final String EXTRA_LOCATION = "location";
 
-    public static final int NOTIFICATION_ID = 1;
-    private NotificationManager mNotificationManager;
-
     public GcmBroadcastReceiver() {
         super();
     }
@@ -55,39 +50,19 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
              */
             if (GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE.equals(messageType)) {
                 // Is this our message?? Better be if you're going to act on it!
-                if (MainActivity.PROJECT_NUMBER.equals(extras.getString(EXTRA_SENDER))) {
-                    // Process message and then post a notification of the received message.
-                    String weather = extras.getString(EXTRA_WEATHER);
-                    String location = extras.getString(EXTRA_LOCATION);
-                    String alert = "Heads up: " + weather + " in " + location + "!";
-
-                    sendNotification(context, alert);
+                if (MainActivity.PROJECT_NUMBER.equals(extras.getString(EXTRA_SENDER))
+                        && PushSyncIntentService.isForecastPush(extras)) {
+                    // Forecast pushes touch the database, which doesn't belong on this thread
+                    context.startService(new Intent(context, PushSyncIntentService.class)
+                            .putExtras(extras));
+                } else if (MainActivity.PROJECT_NUMBER.equals(extras.getString(EXTRA_SENDER))) {
+                    // Alerts are merged into one notification off the main thread
+                    WeatherAlertIntentService.addAlert(context, extras.getString(EXTRA_WEATHER),
+                            extras.getString(EXTRA_LOCATION));
                 }
 
                 Log.i(LOG_TAG, "Received: " + extras.toString());
             }
         }
     }
-
-    // Put the message into a notification and post it.
-    // This is just one simple example of what you might choose to do with a GCM message.
-    private void sendNotification(Context context, String msg) {
-        mNotificationManager = (NotificationManager)
-                context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-        PendingIntent contentIntent =
-                PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class), 0);
-
-        NotificationCompat.Builder mBuilder =
-                new NotificationCompat.Builder(context)
-                        .setSmallIcon(R.drawable.art_storm)
-                        .setContentTitle("Weather Alert!")
-                        .setStyle(new NotificationCompat.BigTextStyle()
-                                .bigText(msg))
-                        .setContentText(msg)
-                        .setPriority(NotificationCompat.PRIORITY_HIGH);
-
-        mBuilder.setContentIntent(contentIntent);
-        mNotificationManager.notify(NOTIFICATION_ID, mBuilder.build());
-    }
 }
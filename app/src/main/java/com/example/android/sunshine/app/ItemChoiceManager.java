@@ -46,6 +46,19 @@ public class ItemChoiceManager {
         }
     };
 
+    /**
+     * Adapters that can map a stable id straight back to its position implement this so that
+     * checked items can be restored after a data set change without probing the adapter.
+     */
+    public interface ItemIdIndex {
+        /**
+         * @param id A stable id previously returned by the adapter's getItemId
+         * @return The current position of the item with that id, or RecyclerView.NO_POSITION
+         * if it is no longer in the data set.
+         */
+        int getPositionForItemId(long id);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -53,12 +66,14 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
      * How many positions in either direction we will search to try to
      * find a checked item with a stable ID that moved position across
      * a data set change. If the item isn't found it will be unselected.
+     * Only used for adapters that don't implement {@link ItemIdIndex}.
      */
     private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
@@ -109,6 +124,12 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                // Keep the ids in step, they are what the checks are restored from
+                if (checked) {
+                    mCheckedIdStates.delete(mAdapter.getItemId(position));
+                } else {
+                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -158,34 +179,37 @@ public class ItemChoiceManager {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
+        ItemIdIndex index = mAdapter instanceof ItemIdIndex ? (ItemIdIndex) mAdapter : null;
         for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
-                boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    mCheckedIdStates.delete(id);
-                    checkedIndex--;
-                }
+            final int newPos = null != index
+                    ? index.getPositionForItemId(id)
+                    : findPositionNear(id, lastPos, oldItemCount);
+            if (newPos != RecyclerView.NO_POSITION) {
+                mCheckStates.put(newPos, true);
+                mCheckedIdStates.setValueAt(checkedIndex, newPos);
             } else {
-                mCheckStates.put(lastPos, true);
+                mCheckedIdStates.delete(id);
+                checkedIndex--;
+            }
+        }
+    }
+
+    private int findPositionNear(long id, int lastPos, int oldItemCount) {
+        if (lastPos < oldItemCount && id == mAdapter.getItemId(lastPos)) {
+            return lastPos;
+        }
+        // Look around to see if the ID is nearby. If not, uncheck it.
+        final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
+        final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
+        for (int searchPos = start; searchPos < end; searchPos++) {
+            if (id == mAdapter.getItemId(searchPos)) {
+                return searchPos;
             }
         }
+        return RecyclerView.NO_POSITION;
     }
 
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
@@ -21,16 +21,29 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.support.v7.widget.ListPopupWindow;
 import android.text.Editable;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 
+import java.util.List;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    static final private int MAX_SUGGESTIONS = 8;
     private int mMinLength;
 
+    // Cities from the on-device index matching what has been typed, so a location that
+    // OpenWeatherMap knows can be picked without waiting for a sync to validate it
+    private ListPopupWindow mSuggestionPopup;
+    private ArrayAdapter<String> mSuggestionAdapter;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -49,7 +62,26 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+        final CityIndex cityIndex = CityIndex.getInstance(getContext());
+        if (cityIndex != null) {
+            mSuggestionAdapter = new ArrayAdapter<String>(getContext(),
+                    android.R.layout.simple_list_item_1);
+            mSuggestionPopup = new ListPopupWindow(getContext());
+            mSuggestionPopup.setAdapter(mSuggestionAdapter);
+            mSuggestionPopup.setAnchorView(et);
+            mSuggestionPopup.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+            mSuggestionPopup.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+                @Override
+                public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                    String location = mSuggestionAdapter.getItem(position);
+                    et.setText(location);
+                    et.setSelection(location.length());
+                    mSuggestionPopup.dismiss();
+                }
+            });
+        }
+
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -78,7 +110,49 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+
+                // Zip codes aren't in the index, and once there is a country the city has
+                // been picked
+                if (cityIndex != null && mSuggestionPopup != null) {
+                    String query = s.toString();
+                    List<String> suggestions = null;
+                    if (!TextUtils.isDigitsOnly(query) && query.indexOf(',') < 0) {
+                        suggestions = cityIndex.suggest(query, MAX_SUGGESTIONS);
+                    }
+                    mSuggestionAdapter.clear();
+                    if (suggestions == null || suggestions.isEmpty()) {
+                        mSuggestionPopup.dismiss();
+                    } else {
+                        for (String suggestion : suggestions) {
+                            mSuggestionAdapter.add(suggestion);
+                        }
+                        mSuggestionPopup.show();
+                    }
+                }
             }
         });
     }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (mSuggestionPopup != null) {
+            mSuggestionPopup.dismiss();
+            mSuggestionPopup = null;
+            mSuggestionAdapter = null;
+        }
+        if (positiveResult) {
+            // Store the canonical "City,CC" when the name typed is a single known city, so the
+            // sync asks for exactly that city
+            CityIndex cityIndex = CityIndex.getInstance(getContext());
+            EditText et = getEditText();
+            String location = et.getText().toString();
+            if (cityIndex != null && location.indexOf(',') < 0) {
+                String canonical = cityIndex.canonicalize(location);
+                if (canonical != null) {
+                    et.setText(canonical);
+                }
+            }
+        }
+        super.onDialogClosed(positiveResult);
+    }
 }
@@ -22,7 +22,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
@@ -33,6 +32,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
@@ -41,6 +41,8 @@ import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback {
 
@@ -56,12 +58,16 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
      */
     static String PROJECT_NUMBER = "Your Project Number";
 
+    // Sync account creation and GCM registration run on their own threads
+    private static final int STARTUP_THREADS = 2;
+
     private boolean mTwoPane;
     private String mLocation;
-    private GoogleCloudMessaging mGcm;
+    private volatile boolean mStartupInitialized;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupMetrics.markStart();
         super.onCreate(savedInstanceState);
 
         PROJECT_NUMBER = getString(R.string.project_number);
@@ -106,28 +112,86 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Nothing below is needed to draw the forecast, so hold it until the first frame is out
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupMetrics.markFirstFrame();
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startDeferredInitialization();
+                    }
+                });
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Runs the start up work that doesn't affect the first frame.  The sync account and the GCM
+     * registration don't depend on each other, so they run concurrently on background threads;
+     * only the dialogs they may need come back to the UI thread.
+     */
+    private void startDeferredInitialization() {
+        if (isFinishing()) {
+            return;
+        }
+        final Context context = getApplicationContext();
+        ExecutorService executor = Executors.newFixedThreadPool(STARTUP_THREADS);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncAdapter.initializeSyncAdapter(context);
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                initializeGcm(context);
+            }
+        });
+        executor.shutdown();
+    }
 
+    /**
+     * Registers with GCM if needed.  Must be called from a background thread.
+     */
+    private void initializeGcm(Context context) {
+        final int resultCode = GooglePlayServicesUtil.isGooglePlayServicesAvailable(context);
         // If Google Play Services is not available, some features, such as GCM-powered weather
         // alerts, will not be available.
-        if (checkPlayServices()) {
-            mGcm = GoogleCloudMessaging.getInstance(this);
-            String regId = getRegistrationId(this);
-
+        if (resultCode == ConnectionResult.SUCCESS) {
             if (PROJECT_NUMBER.equals("Your Project Number")) {
-                new AlertDialog.Builder(this)
-                .setTitle("Needs Project Number")
-                .setMessage("GCM will not function in Sunshine until you set the Project Number to the one from the Google Developers Console.")
-                .setPositiveButton(android.R.string.ok, null)
-                .create().show();
-            } else if (regId.isEmpty()) {
-                registerInBackground(this);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) return;
+                        new AlertDialog.Builder(MainActivity.this)
+                        .setTitle("Needs Project Number")
+                        .setMessage("GCM will not function in Sunshine until you set the Project Number to the one from the Google Developers Console.")
+                        .setPositiveButton(android.R.string.ok, null)
+                        .create().show();
+                    }
+                });
+            } else if (getRegistrationId(context).isEmpty()) {
+                register(context);
             }
         } else {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (isFinishing()) return;
+                    showPlayServicesError(resultCode);
+                }
+            });
             Log.i(LOG_TAG, "No valid Google Play Services APK. Weather alerts will be disabled.");
             // Store regID as null
-            storeRegistrationId(this, null);
+            storeRegistrationId(context, null);
         }
+        mStartupInitialized = true;
     }
 
     @Override
@@ -157,8 +221,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         super.onResume();
 
         // If Google Play Services is not available, some features, such as GCM-powered weather
-        // alerts, will not be available.
-        if (!checkPlayServices()) {
+        // alerts, will not be available.  On a cold start the deferred initialization does this
+        // check, off the UI thread.
+        if (mStartupInitialized && !checkPlayServices()) {
             // Store regID as null
         }
 
@@ -211,18 +276,22 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     private boolean checkPlayServices() {
         int resultCode = GooglePlayServicesUtil.isGooglePlayServicesAvailable(this);
         if (resultCode != ConnectionResult.SUCCESS) {
-            if (GooglePlayServicesUtil.isUserRecoverableError(resultCode)) {
-                GooglePlayServicesUtil.getErrorDialog(resultCode, this,
-                        PLAY_SERVICES_RESOLUTION_REQUEST).show();
-            } else {
-                Log.i(LOG_TAG, "This device is not supported.");
-                finish();
-            }
+            showPlayServicesError(resultCode);
             return false;
         }
         return true;
     }
 
+    private void showPlayServicesError(int resultCode) {
+        if (GooglePlayServicesUtil.isUserRecoverableError(resultCode)) {
+            GooglePlayServicesUtil.getErrorDialog(resultCode, this,
+                    PLAY_SERVICES_RESOLUTION_REQUEST).show();
+        } else {
+            Log.i(LOG_TAG, "This device is not supported.");
+            finish();
+        }
+    }
+
     /**
      * Gets the current registration ID for application on GCM service.
      * <p>
@@ -276,43 +345,36 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     }
 
     /**
-     * Registers the application with GCM servers asynchronously.
+     * Registers the application with GCM servers.  This blocks on the network, so it must be
+     * called from a background thread.
      * <p>
      * Stores the registration ID and app versionCode in the application's
      * shared preferences.
      */
-    private void registerInBackground(final Context context) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                String msg = "";
-                try {
-                    if (mGcm == null) {
-                        mGcm = GoogleCloudMessaging.getInstance(context);
-                    }
-                    String regId = mGcm.register(PROJECT_NUMBER);
-                    msg = "Device registered, registration ID=" + regId;
-
-                    // You should send the registration ID to your server over HTTP,
-                    // so it can use GCM/HTTP or CCS to send messages to your app.
-                    // The request to your server should be authenticated if your app
-                    // is using accounts.
-                    //sendRegistrationIdToBackend();
-                    // For this demo: we don't need to send it because the device
-                    // will send upstream messages to a server that echo back the
-                    // message using the 'from' address in the message.
-
-                    // Persist the registration ID - no need to register again.
-                    storeRegistrationId(context, regId);
-                } catch (IOException ex) {
-                    msg = "Error :" + ex.getMessage();
-                    // TODO: If there is an error, don't just keep trying to register.
-                    // Require the user to click a button again, or perform
-                    // exponential back-off.
-                }
-                return null;
-            }
-        }.execute(null, null, null);
+    private void register(Context context) {
+        String msg = "";
+        try {
+            GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(context);
+            String regId = gcm.register(PROJECT_NUMBER);
+            msg = "Device registered, registration ID=" + regId;
+
+            // You should send the registration ID to your server over HTTP,
+            // so it can use GCM/HTTP or CCS to send messages to your app.
+            // The request to your server should be authenticated if your app
+            // is using accounts.
+            //sendRegistrationIdToBackend();
+            // For this demo: we don't need to send it because the device
+            // will send upstream messages to a server that echo back the
+            // message using the 'from' address in the message.
+
+            // Persist the registration ID - no need to register again.
+            storeRegistrationId(context, regId);
+        } catch (IOException ex) {
+            msg = "Error :" + ex.getMessage();
+            // TODO: If there is an error, don't just keep trying to register.
+            // Require the user to click a button again, or perform
+            // exponential back-off.
+        }
     }
 
     /**
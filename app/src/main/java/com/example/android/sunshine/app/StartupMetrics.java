@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Records how long a cold start of {@link MainActivity} takes to reach the two milestones the
+ * user actually notices: the first frame, and the first forecast row on screen.  Each milestone
+ * is only recorded once per process.  All methods must be called from the main thread.
+ */
+public class StartupMetrics {
+    private static final String LOG_TAG = StartupMetrics.class.getSimpleName();
+
+    private static final long NOT_RECORDED = -1;
+
+    private static long sStartTime = NOT_RECORDED;
+    private static long sFirstFrameTime = NOT_RECORDED;
+    private static long sFirstForecastRowTime = NOT_RECORDED;
+
+    private StartupMetrics() {
+    }
+
+    static void markStart() {
+        if (sStartTime == NOT_RECORDED) {
+            sStartTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    static void markFirstFrame() {
+        if (sStartTime != NOT_RECORDED && sFirstFrameTime == NOT_RECORDED) {
+            sFirstFrameTime = SystemClock.uptimeMillis();
+            Log.i(LOG_TAG, "Time to first frame: " + getTimeToFirstFrame() + "ms");
+        }
+    }
+
+    static void markFirstForecastRow() {
+        if (sStartTime != NOT_RECORDED && sFirstForecastRowTime == NOT_RECORDED) {
+            sFirstForecastRowTime = SystemClock.uptimeMillis();
+            Log.i(LOG_TAG, "Time to first forecast row: " + getTimeToFirstForecastRow() + "ms");
+        }
+    }
+
+    /**
+     * @return milliseconds from MainActivity's onCreate to its first frame, or -1 if that
+     * hasn't happened yet.
+     */
+    public static long getTimeToFirstFrame() {
+        return elapsedSinceStart(sFirstFrameTime);
+    }
+
+    /**
+     * @return milliseconds from MainActivity's onCreate to the first forecast row being drawn,
+     * or -1 if that hasn't happened yet.
+     */
+    public static long getTimeToFirstForecastRow() {
+        return elapsedSinceStart(sFirstForecastRowTime);
+    }
+
+    private static long elapsedSinceStart(long time) {
+        return time == NOT_RECORDED ? NOT_RECORDED : time - sStartTime;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.v4.app.NotificationCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Turns the weather alerts pushed over GCM into a single notification.
+ *
+ * Alerts are buffered per location until the notification is opened or dismissed, and every
+ * alert still buffered is listed in it.  The notification is reposted at most once per
+ * {@link #MIN_NOTIFY_INTERVAL}: alerts arriving faster than that are merged into one update at
+ * the end of the interval, so a burst of alerts doesn't keep the shade busy.
+ */
+public class WeatherAlertIntentService extends IntentService {
+    private static final String LOG_TAG = WeatherAlertIntentService.class.getSimpleName();
+
+    private static final String ACTION_ALERT = "com.example.android.sunshine.app.ACTION_ALERT";
+    private static final String ACTION_POST =
+            "com.example.android.sunshine.app.ACTION_POST_ALERTS";
+    private static final String ACTION_CLEAR =
+            "com.example.android.sunshine.app.ACTION_CLEAR_ALERTS";
+    private static final String EXTRA_OPEN = "open";
+    private static final String EXTRA_WEATHER = "weather";
+    private static final String EXTRA_LOCATION = "location";
+
+    public static final int NOTIFICATION_ID = 1;
+    private static final long MIN_NOTIFY_INTERVAL = 30 * 1000;
+
+    // Buffered alerts, keyed by location with one alert per line, and when the notification was
+    // last posted.  Kept in preferences so a deferred update survives the process.
+    private static final String PREFS_NAME = "weather_alerts";
+    private static final String PREF_LAST_POSTED = ":last_posted";
+
+    public WeatherAlertIntentService() {
+        super("WeatherAlertIntentService");
+    }
+
+    /**
+     * Queues an alert for the notification.  Only starts the service, so it is cheap enough for
+     * the GCM receiver.
+     */
+    public static void addAlert(Context context, String weather, String location) {
+        context.startService(new Intent(context, WeatherAlertIntentService.class)
+                .setAction(ACTION_ALERT)
+                .putExtra(EXTRA_WEATHER, weather)
+                .putExtra(EXTRA_LOCATION, location));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        SharedPreferences alerts = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String action = intent.getAction();
+        if (ACTION_ALERT.equals(action)) {
+            String weather = intent.getStringExtra(EXTRA_WEATHER);
+            String location = intent.getStringExtra(EXTRA_LOCATION);
+            if (weather == null || location == null) {
+                return;
+            }
+            String buffered = alerts.getString(location, null);
+            if (buffered != null && containsLine(buffered, weather)) {
+                // Already listed, nothing would change
+                return;
+            }
+            alerts.edit()
+                    .putString(location, buffered == null ? weather : buffered + "\n" + weather)
+                    .apply();
+            postWhenAllowed(alerts);
+        } else if (ACTION_POST.equals(action)) {
+            postNotification(alerts);
+        } else if (ACTION_CLEAR.equals(action)) {
+            // The last posted time is kept, so the rate limit still holds
+            long lastPosted = alerts.getLong(PREF_LAST_POSTED, 0);
+            alerts.edit().clear().putLong(PREF_LAST_POSTED, lastPosted).apply();
+            if (intent.getBooleanExtra(EXTRA_OPEN, false)) {
+                startActivity(new Intent(this, MainActivity.class)
+                        .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+            }
+        }
+    }
+
+    private static boolean containsLine(String lines, String line) {
+        for (String buffered : TextUtils.split(lines, "\n")) {
+            if (buffered.equals(line)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void postWhenAllowed(SharedPreferences alerts) {
+        long now = System.currentTimeMillis();
+        long nextAllowedPost = alerts.getLong(PREF_LAST_POSTED, 0) + MIN_NOTIFY_INTERVAL;
+        if (now >= nextAllowedPost) {
+            postNotification(alerts);
+            return;
+        }
+        // The notification is built from the buffer when the alarm goes off, so replacing an
+        // alarm that is already pending still posts every alert
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0,
+                new Intent(this, WeatherAlertIntentService.class).setAction(ACTION_POST),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.RTC, nextAllowedPost, pendingIntent);
+        Log.d(LOG_TAG, "Deferred alert notification by " + (nextAllowedPost - now) + "ms");
+    }
+
+    private void postNotification(SharedPreferences alerts) {
+        ArrayList<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, ?> entry : alerts.getAll().entrySet()) {
+            if (PREF_LAST_POSTED.equals(entry.getKey())) {
+                continue;
+            }
+            for (String weather : TextUtils.split((String) entry.getValue(), "\n")) {
+                lines.add(getString(R.string.format_alert, weather, entry.getKey()));
+            }
+        }
+        if (lines.isEmpty()) {
+            // Cleared while the update was deferred
+            return;
+        }
+
+        // Opening the notification clears the alerts too, then shows the forecast
+        Intent clearIntent = new Intent(this, WeatherAlertIntentService.class)
+                .setAction(ACTION_CLEAR);
+        PendingIntent contentIntent = PendingIntent.getService(this, 1,
+                new Intent(clearIntent).putExtra(EXTRA_OPEN, true), 0);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.art_storm)
+                .setContentTitle(getString(R.string.alert_notification_title))
+                .setContentText(lines.get(lines.size() - 1))
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setContentIntent(contentIntent)
+                .setDeleteIntent(PendingIntent.getService(this, 0, clearIntent, 0))
+                .setAutoCancel(true)
+                // Updates within a burst replace the notification without alerting again
+                .setOnlyAlertOnce(true);
+        if (lines.size() == 1) {
+            builder.setStyle(new NotificationCompat.BigTextStyle().bigText(lines.get(0)));
+        } else {
+            NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle()
+                    .setSummaryText(getResources().getQuantityString(
+                            R.plurals.alert_notification_summary, lines.size(), lines.size()));
+            for (String line : lines) {
+                inboxStyle.addLine(line);
+            }
+            builder.setStyle(inboxStyle)
+                    .setNumber(lines.size());
+        }
+
+        NotificationManager notificationManager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(NOTIFICATION_ID, builder.build());
+        alerts.edit().putLong(PREF_LAST_POSTED, System.currentTimeMillis()).apply();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * One location's whole forecast as a single blob, so that reading it is one row lookup instead
+ * of a row per day through the location join.
+ *
+ * The blob is a version byte and a day count, then for each day, by ascending date: its row id,
+ * date, weather id, the six measurements as doubles, and the short description.
+ */
+final class ForecastPack {
+    private static final int VERSION = 1;
+
+    // What the provider reads from the weather table to pack a location.  These indices must
+    // match the projection.
+    static final String[] PACK_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_SHORT_DESC
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_FIRST_MEASUREMENT = 3;
+    private static final int INDEX_SHORT_DESC = 9;
+
+    // Every column a decoded pack can be asked for: the packed ones, then the location's
+    private static final String[] ALL_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_LOC_KEY,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int INDEX_LOC_KEY = 10;
+    private static final int MEASUREMENT_COUNT = INDEX_SHORT_DESC - INDEX_FIRST_MEASUREMENT;
+
+    private ForecastPack() {
+    }
+
+    /**
+     * @param days The location's days, by ascending date, in {@link #PACK_COLUMNS}
+     */
+    static byte[] encode(Cursor days) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeShort(days.getCount());
+            while (days.moveToNext()) {
+                out.writeLong(days.getLong(INDEX_ID));
+                out.writeLong(days.getLong(INDEX_DATE));
+                out.writeInt(days.getInt(INDEX_WEATHER_ID));
+                for (int i = 0; i < MEASUREMENT_COUNT; i++) {
+                    out.writeDouble(days.getDouble(INDEX_FIRST_MEASUREMENT + i));
+                }
+                out.writeUTF(days.getString(INDEX_SHORT_DESC));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a pack into a cursor shaped like a weather query joined with the location.
+     *
+     * @param projection Columns to return, which may be qualified with their table name, or
+     *                   null for all of them
+     * @param location The location's row id, setting, city name, latitude and longitude
+     * @param startDate Days before this date are left out
+     * @return the days by ascending date, or null if the pack is malformed or from another
+     * version
+     */
+    static Cursor decode(byte[] pack, String[] projection, Object[] location, long startDate) {
+        if (projection == null) {
+            projection = ALL_COLUMNS;
+        }
+        String[] columnNames = new String[projection.length];
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            // "weather._id" comes back as "_id", like it does from SQLite
+            columnNames[i] = projection[i].substring(projection[i].lastIndexOf('.') + 1);
+            columns[i] = -1;
+            for (int j = 0; j < ALL_COLUMNS.length; j++) {
+                if (ALL_COLUMNS[j].equals(columnNames[i])) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Unknown column: " + projection[i]);
+            }
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(pack));
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            int dayCount = in.readShort();
+            if (dayCount < 0) {
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(columnNames, dayCount);
+            Object[] day = new Object[ALL_COLUMNS.length];
+            System.arraycopy(location, 0, day, INDEX_LOC_KEY, location.length);
+            for (int d = 0; d < dayCount; d++) {
+                day[INDEX_ID] = in.readLong();
+                day[INDEX_DATE] = in.readLong();
+                day[INDEX_WEATHER_ID] = in.readInt();
+                for (int i = 0; i < MEASUREMENT_COUNT; i++) {
+                    day[INDEX_FIRST_MEASUREMENT + i] = in.readDouble();
+                }
+                day[INDEX_SHORT_DESC] = in.readUTF();
+                if ((Long) day[INDEX_DATE] < startDate) {
+                    continue;
+                }
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = day[columns[i]];
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -43,6 +43,7 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +82,75 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The locations nearest to a point, closest first:
+        // location/nearest?lat=<latitude>&lon=<longitude>&limit=<count>
+        public static final String PATH_NEAREST = "nearest";
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_LIMIT = "limit";
+
+        // Great-circle distance in kilometers from the point of a nearest locations query.  Only
+        // in the cursors returned for that URI.
+        public static final String COLUMN_DISTANCE = "distance";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildNearestLocationsUri(double latitude, double longitude, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LON, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /**
+         * @throws IllegalArgumentException if the latitude is missing or out of range
+         */
+        public static double getLatitudeFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LAT, 90);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the longitude is missing or out of range
+         */
+        public static double getLongitudeFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LON, 180);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the limit is missing or not positive
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            try {
+                int limit = Integer.parseInt(limitString);
+                if (limit > 0) {
+                    return limit;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below, like a limit that is out of range
+            }
+            throw new IllegalArgumentException("Invalid " + PARAM_LIMIT + " '" + limitString +
+                    "' in " + uri);
+        }
+
+        private static double getCoordinateFromUri(Uri uri, String param, double maxDegrees) {
+            String coordinateString = uri.getQueryParameter(param);
+            if (coordinateString != null) {
+                try {
+                    double coordinate = Double.parseDouble(coordinateString);
+                    // Also false for NaN
+                    if (Math.abs(coordinate) <= maxDegrees) {
+                        return coordinate;
+                    }
+                } catch (NumberFormatException e) {
+                    // Reported below, like a coordinate that is out of range
+                }
+            }
+            throw new IllegalArgumentException("Invalid " + param + " '" + coordinateString +
+                    "' in " + uri);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +193,11 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter asking for the packed forecast
+        public static final String PARAM_PACKED = "packed";
+        // Query parameter asking for deleted days to be moved into the archive
+        public static final String PARAM_ARCHIVE = "archive";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +216,34 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * Same as {@link #buildWeatherLocationWithStartDate}, but read from the location's packed
+         * forecast, which is a single row instead of one per day.  The days always come back by
+         * ascending date, and only the weather and location columns can be asked for.
+         */
+        public static Uri buildPackedWeatherLocationWithStartDate(
+                String locationSetting, long startDate) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_PACKED, "1").build();
+        }
+
+        public static boolean isPackedUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_PACKED));
+        }
+
+        /**
+         * Deleting through this URI copies the selected days into the archive before dropping
+         * them, in the same transaction.  Nothing is deleted unless every day could be archived.
+         * The selection runs on the weather table joined with the location table.
+         */
+        public static Uri buildWeatherArchivingUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "1").build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -165,4 +265,79 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the archive table */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        // Past days are kept one row per day for this long, then merged into one row per week
+        public static final int DAILY_RETENTION_DAYS = 28;
+        public static final int DAYS_PER_WEEK = 7;
+
+        public static final String TABLE_NAME = "archive";
+
+        // The location setting the days were fetched for.  Not the location's row id, which
+        // changes whenever the cached tables are recreated, while the archive is kept.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // Start of the period the row covers, stored as long in milliseconds since the epoch
+        public static final String COLUMN_DATE = "date";
+        // Length of the period in days: 1, or DAYS_PER_WEEK once compacted
+        public static final String COLUMN_PERIOD_DAYS = "period_days";
+        // Number of days the row aggregates
+        public static final String COLUMN_SAMPLES = "samples";
+
+        // The lowest weather id of the period.  The API's ids go from storms up to clear sky, so
+        // this is the most significant weather seen.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        // Lowest min and highest max temperatures of the period
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        // Averages over the period
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        // Query parameters of a range query: start inclusive, end exclusive
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildArchiveLocationWithRange(String locationSetting, long startDate,
+                                                        long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getQueryParameter(PARAM_START));
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getQueryParameter(PARAM_END));
+        }
+    }
+
+    /* Inner class that defines the table contents of the forecast pack table */
+    public static final class ForecastPackEntry implements BaseColumns {
+
+        // Every location's forecast, packed in one blob, kept in step with the weather table
+        public static final String TABLE_NAME = "forecast_pack";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The days of the location's forecast, as written by ForecastPack
+        public static final String COLUMN_FORECAST = "forecast";
+    }
 }
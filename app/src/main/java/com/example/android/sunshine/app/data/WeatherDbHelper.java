@@ -19,6 +19,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ForecastPackEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,10 +30,21 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Each location's forecast in a single row, for reading all of it at once.  Added in
+    // version 5.
+    private static final String SQL_CREATE_FORECAST_PACK_TABLE = "CREATE TABLE " +
+            ForecastPackEntry.TABLE_NAME + " (" +
+            ForecastPackEntry._ID + " INTEGER PRIMARY KEY," +
+            ForecastPackEntry.COLUMN_LOC_KEY + " INTEGER UNIQUE NOT NULL, " +
+            ForecastPackEntry.COLUMN_FORECAST + " BLOB NOT NULL, " +
+
+            " FOREIGN KEY (" + ForecastPackEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -79,20 +92,57 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // Nearest location queries scan a band of latitudes around the point
+        final String SQL_CREATE_LOCATION_LAT_INDEX = "CREATE INDEX " +
+                LocationEntry.TABLE_NAME + "_" + LocationEntry.COLUMN_COORD_LAT + " ON " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_COORD_LAT + ");";
+
+        // Past weather, kept after the sync drops it from the weather table.  Rows are either a
+        // single day or, once compacted, a week of days.
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                ArchiveEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_PERIOD_DAYS + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_SAMPLES + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+
+                // One row per period per location, which also indexes range queries
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                ArchiveEntry.COLUMN_DATE + ", " +
+                ArchiveEntry.COLUMN_PERIOD_DAYS + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_LAT_INDEX);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_PACK_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 4) {
+            // Before the archive, this database was only a cache for online data, so the upgrade
+            // policy was to simply discard the data and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ForecastPackEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        // From here on the archive holds past weather that can't be fetched again, so every
+        // schema change has to be a step from the previous version that keeps it
+        if (oldVersion < 5) {
+            // Starts out empty, and the provider reads the weather rows until the next sync
+            // fills it in
+            sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_PACK_TABLE);
+        }
     }
 }
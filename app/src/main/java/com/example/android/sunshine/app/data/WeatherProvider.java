@@ -17,23 +17,77 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /**
+     * What the batch being applied has changed so far, to act on once it's done.
+     */
+    private static class BatchChanges {
+        final HashSet<Long> mLocationIds = new HashSet<Long>();
+        final HashSet<Uri> mUris = new HashSet<Uri>();
+    }
+
+    // Set while applyBatch runs on a thread
+    private final ThreadLocal<BatchChanges> mBatchChanges = new ThreadLocal<BatchChanges>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAREST = 301;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+
+    private static final long WEEK_IN_MILLIS =
+            WeatherContract.ArchiveEntry.DAYS_PER_WEEK * 24 * 60 * 60 * 1000L;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    // Two points this many degrees of latitude apart are at least this far apart
+    private static final double KM_PER_DEGREE_LATITUDE = Math.PI * EARTH_RADIUS_KM / 180;
+    private static final double INITIAL_NEAREST_BAND_DEGREES = 1.0;
+
+    private static final String[] NEAREST_LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    private static final int INDEX_NEAREST_ID = 0;
+    private static final int INDEX_NEAREST_LOCATION_SETTING = 1;
+    private static final int INDEX_NEAREST_CITY_NAME = 2;
+    private static final int INDEX_NEAREST_LAT = 3;
+    private static final int INDEX_NEAREST_LONG = 4;
+
+    //location.coord_lat BETWEEN ? AND ?
+    private static final String sLatitudeBandSelection =
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? ";
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +105,91 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    //archive.location_setting = ? AND date >= ? AND date < ?
+    private static final String sLocationSettingWithRangeSelection =
+            WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " < ? ";
+
+    // Merges every week before the cutoff that still has single days, together with the row
+    // already kept for that week if there is one, into a single row for the week.  Averages are
+    // weighted by the days each row stands for.
+    private static final String sCompactArchiveSql =
+            "INSERT INTO " + WeatherContract.ArchiveEntry.TABLE_NAME + " (" +
+                    WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_SAMPLES + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED + ") " +
+            "SELECT " +
+                    WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                    "(" + WeatherContract.ArchiveEntry.COLUMN_DATE + " / " + WEEK_IN_MILLIS +
+                    ") * " + WEEK_IN_MILLIS + ", " +
+                    WeatherContract.ArchiveEntry.DAYS_PER_WEEK + ", " +
+                    "SUM(" + WeatherContract.ArchiveEntry.COLUMN_SAMPLES + "), " +
+                    "MIN(" + WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID + "), " +
+                    "MIN(" + WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + "), " +
+                    "MAX(" + WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + "), " +
+                    weightedAverage(WeatherContract.ArchiveEntry.COLUMN_HUMIDITY) + ", " +
+                    weightedAverage(WeatherContract.ArchiveEntry.COLUMN_PRESSURE) + ", " +
+                    weightedAverage(WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED) +
+            " FROM " + WeatherContract.ArchiveEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.ArchiveEntry.COLUMN_DATE + " < ?" +
+            " GROUP BY " + WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " / " + WEEK_IN_MILLIS +
+            " HAVING MIN(" + WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS + ") = 1";
+
+    // Copies days of the weather table into the archive, followed by the caller's selection.
+    // The weather rows only know their location's row id, so they are joined with the location
+    // table for its setting.
+    private static final String sArchiveWeatherSql =
+            "INSERT INTO " + WeatherContract.ArchiveEntry.TABLE_NAME + " (" +
+                    WeatherContract.ArchiveEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_SAMPLES + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED + ") " +
+            "SELECT " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_DATE) + ", 1, 1, " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID) + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_HUMIDITY) + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_PRESSURE) + ", " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED) +
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                    weatherColumn(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) + " = " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry._ID +
+            " WHERE ";
+
+    private static String weatherColumn(String column) {
+        return WeatherContract.WeatherEntry.TABLE_NAME + "." + column;
+    }
+
+    //period_days = 1 AND date < ?
+    private static final String sCompactedDaysSelection =
+            WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS + " = 1 AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " < ? ";
+
+    private static String weightedAverage(String column) {
+        return "SUM(" + column + " * " + WeatherContract.ArchiveEntry.COLUMN_SAMPLES + ") / " +
+                "SUM(" + WeatherContract.ArchiveEntry.COLUMN_SAMPLES + ")";
+    }
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -68,10 +207,44 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location_id NOT IN (SELECT _id FROM location)
+    private static final String sOrphanedPackSelection =
+            WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    //SELECT location._id, location_setting, city_name, coord_lat, coord_long, forecast
+    //FROM location INNER JOIN forecast_pack ON forecast_pack.location_id = location._id
+    //WHERE location_setting = ?
+    private static final String sPackedForecastByLocationSettingSql =
+            "SELECT " + WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry._ID + ", " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ", " +
+                    WeatherContract.ForecastPackEntry.COLUMN_FORECAST +
+            " FROM " + WeatherContract.LocationEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.ForecastPackEntry.TABLE_NAME + " ON " +
+                    WeatherContract.ForecastPackEntry.TABLE_NAME + "." +
+                    WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY + " = " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry._ID +
+            " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        if (WeatherContract.WeatherEntry.isPackedUri(uri)) {
+            Cursor packed = getPackedWeatherByLocationSetting(locationSetting, projection,
+                    startDate);
+            if (packed != null) {
+                return packed;
+            }
+            // No usable pack, which the rows can still answer
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -93,6 +266,104 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * @return the location's forecast decoded from its pack, or null if it has no pack
+     */
+    private Cursor getPackedWeatherByLocationSetting(
+            String locationSetting, String[] projection, long startDate) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().rawQuery(
+                sPackedForecastByLocationSettingSql, new String[]{locationSetting});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Object[] location = new Object[]{
+                    cursor.getLong(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getDouble(3),
+                    cursor.getDouble(4)};
+            return ForecastPack.decode(cursor.getBlob(5), projection, location, startDate);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the locations of the weather rows matching the selection
+     */
+    private static HashSet<Long> getWeatherLocationIds(SQLiteDatabase db, String selection,
+                                                       String[] selectionArgs) {
+        HashSet<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        while (cursor.moveToNext()) {
+            locationIds.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return locationIds;
+    }
+
+    /**
+     * Repacks the forecast of the given locations once their weather rows changed, or defers
+     * that to the end of the batch being applied on this thread.
+     */
+    private void repackForecasts(SQLiteDatabase db, Collection<Long> locationIds) {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.mLocationIds.addAll(locationIds);
+        } else {
+            rebuildForecastPacks(db, locationIds);
+        }
+    }
+
+    /**
+     * Repacks the forecast of the given locations from the weather table, dropping the pack of
+     * a location that has no days left.
+     */
+    private static void rebuildForecastPacks(SQLiteDatabase db, Collection<Long> locationIds) {
+        db.beginTransaction();
+        try {
+            for (long locationId : locationIds) {
+                String[] locationArgs = new String[]{Long.toString(locationId)};
+                db.delete(WeatherContract.ForecastPackEntry.TABLE_NAME,
+                        WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY + " = ?", locationArgs);
+                Cursor days = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                        ForecastPack.PACK_COLUMNS,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        locationArgs,
+                        null,
+                        null,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                if (days.getCount() > 0) {
+                    ContentValues values = new ContentValues();
+                    values.put(WeatherContract.ForecastPackEntry.COLUMN_LOC_KEY, locationId);
+                    values.put(WeatherContract.ForecastPackEntry.COLUMN_FORECAST,
+                            ForecastPack.encode(days));
+                    db.insert(WeatherContract.ForecastPackEntry.TABLE_NAME, null, values);
+                }
+                days.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Tells observers about a change, or defers that to the end of the batch being applied on
+     * this thread, so that each URI is notified once per batch.
+     */
+    private void notifyChange(Uri uri) {
+        BatchChanges batch = mBatchChanges.get();
+        if (batch != null) {
+            batch.mUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -108,6 +379,183 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getArchiveByLocationSettingAndRange(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.ArchiveEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.ArchiveEntry.getEndDateFromUri(uri);
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.ArchiveEntry.TABLE_NAME,
+                projection,
+                sLocationSettingWithRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                sortOrder == null ? WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC" : sortOrder
+        );
+    }
+
+    /**
+     * Merges the archived days older than
+     * {@link WeatherContract.ArchiveEntry#DAILY_RETENTION_DAYS} into weekly rows.  Only whole
+     * weeks are merged, so a week is never split between a weekly row and single days.
+     */
+    private static void compactArchive(SQLiteDatabase db) {
+        long retention = WeatherContract.ArchiveEntry.DAILY_RETENTION_DAYS * 24 * 60 * 60 * 1000L;
+        long cutoff = ((System.currentTimeMillis() - retention) / WEEK_IN_MILLIS) * WEEK_IN_MILLIS;
+        String[] cutoffArgs = new String[]{Long.toString(cutoff)};
+        db.execSQL(sCompactArchiveSql, cutoffArgs);
+        db.delete(WeatherContract.ArchiveEntry.TABLE_NAME, sCompactedDaysSelection, cutoffArgs);
+    }
+
+    /**
+     * Moves the selected days of the weather table into the archive in one transaction.  If any
+     * of them can't be archived, e.g. because its location row is missing, nothing is deleted
+     * and they stay in the weather table for the next attempt.
+     *
+     * @return the number of days moved
+     */
+    private int archiveAndDeleteWeather(SQLiteDatabase db, String selection,
+                                        String[] selectionArgs) {
+        if (selectionArgs == null) {
+            selectionArgs = new String[0];
+        }
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            // Checked before writing anything, so that giving up doesn't roll back the batch
+            // this may be part of
+            long pastDays = DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                            " WHERE " + selection, selectionArgs);
+            long archivableDays = DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                            " INNER JOIN " + WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                            weatherColumn(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) + " = " +
+                            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                            WeatherContract.LocationEntry._ID +
+                            " WHERE " + selection, selectionArgs);
+            if (archivableDays != pastDays) {
+                Log.w(LOG_TAG, "Only " + archivableDays + " of " + pastDays +
+                        " past days can be archived, keeping them all");
+                db.setTransactionSuccessful();
+                return 0;
+            }
+            HashSet<Long> locationIds = getWeatherLocationIds(db, selection, selectionArgs);
+            db.execSQL(sArchiveWeatherSql + selection, selectionArgs);
+            compactArchive(db);
+            rowsDeleted = db.delete(
+                    WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            repackForecasts(db, locationIds);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (rowsDeleted != 0) {
+            notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Finds the locations nearest to the point of the URI.  Locations come out of the latitude
+     * index a band at a time: nothing outside a band can be nearer than the band's half width, so
+     * the band only widens until it holds enough locations that are at most that far.
+     */
+    private Cursor getNearestLocations(Uri uri, String[] projection) {
+        double latitude = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double longitude = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        int limit = WeatherContract.LocationEntry.getLimitFromUri(uri);
+        if (projection == null) {
+            projection = new String[NEAREST_LOCATION_COLUMNS.length + 1];
+            System.arraycopy(NEAREST_LOCATION_COLUMNS, 0, projection, 0,
+                    NEAREST_LOCATION_COLUMNS.length);
+            projection[NEAREST_LOCATION_COLUMNS.length] =
+                    WeatherContract.LocationEntry.COLUMN_DISTANCE;
+        }
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        ArrayList<Object[]> candidates = new ArrayList<Object[]>();
+        for (double band = INITIAL_NEAREST_BAND_DEGREES; ; band *= 4) {
+            candidates.clear();
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    NEAREST_LOCATION_COLUMNS,
+                    sLatitudeBandSelection,
+                    new String[]{Double.toString(latitude - band),
+                            Double.toString(latitude + band)},
+                    null,
+                    null,
+                    null);
+            int withinBand = 0;
+            double bandKm = band * KM_PER_DEGREE_LATITUDE;
+            while (cursor.moveToNext()) {
+                double distance = distanceKm(latitude, longitude,
+                        cursor.getDouble(INDEX_NEAREST_LAT), cursor.getDouble(INDEX_NEAREST_LONG));
+                candidates.add(new Object[]{
+                        cursor.getLong(INDEX_NEAREST_ID),
+                        cursor.getString(INDEX_NEAREST_LOCATION_SETTING),
+                        cursor.getString(INDEX_NEAREST_CITY_NAME),
+                        cursor.getDouble(INDEX_NEAREST_LAT),
+                        cursor.getDouble(INDEX_NEAREST_LONG),
+                        distance});
+                if (distance <= bandKm) {
+                    withinBand++;
+                }
+            }
+            cursor.close();
+            // A band of 180 degrees either way holds every location
+            if (withinBand >= limit || band >= 180) {
+                break;
+            }
+        }
+
+        Collections.sort(candidates, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare((Double) lhs[NEAREST_LOCATION_COLUMNS.length],
+                        (Double) rhs[NEAREST_LOCATION_COLUMNS.length]);
+            }
+        });
+
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < NEAREST_LOCATION_COLUMNS.length; j++) {
+                if (NEAREST_LOCATION_COLUMNS[j].equals(projection[i])) {
+                    columns[i] = j;
+                }
+            }
+            if (WeatherContract.LocationEntry.COLUMN_DISTANCE.equals(projection[i])) {
+                columns[i] = NEAREST_LOCATION_COLUMNS.length;
+            }
+            if (columns[i] == -1) {
+                throw new IllegalArgumentException("Unknown column: " + projection[i]);
+            }
+        }
+        MatrixCursor nearest = new MatrixCursor(projection, Math.min(limit, candidates.size()));
+        for (int i = 0; i < limit && i < candidates.size(); i++) {
+            Object[] candidate = candidates.get(i);
+            Object[] row = new Object[projection.length];
+            for (int j = 0; j < projection.length; j++) {
+                row[j] = candidate[columns[j]];
+            }
+            nearest.addRow(row);
+        }
+        return nearest;
+    }
+
+    /**
+     * @return the great-circle distance between two points, in kilometers
+     */
+    static double distanceKm(double lat1, double long1, double lat2, double long2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLong = Math.toRadians(long2 - long1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLong / 2) * Math.sin(dLong / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +578,11 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAREST, LOCATION_NEAREST);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +617,12 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,6 +672,29 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = getNearestLocations(uri, projection);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSettingAndRange(uri, projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -238,6 +720,8 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                repackForecasts(db, Collections.singleton(
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
                 break;
             }
             case LOCATION: {
@@ -251,7 +735,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -264,19 +748,36 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
+                if (WeatherContract.WeatherEntry.isArchivingUri(uri)) {
+                    rowsDeleted = archiveAndDeleteWeather(db, selection, selectionArgs);
+                    break;
+                }
+                HashSet<Long> locationIds = getWeatherLocationIds(db, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    repackForecasts(db, locationIds);
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    // A new location could get a deleted one's row id, and with it its pack
+                    db.delete(WeatherContract.ForecastPackEntry.TABLE_NAME,
+                            sOrphanedPackSelection, null);
+                }
+                break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,8 +800,17 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
+                HashSet<Long> locationIds = getWeatherLocationIds(db, selection, selectionArgs);
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    // Days moved to another location change its pack too
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                        locationIds.add(
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                    }
+                    repackForecasts(db, locationIds);
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
@@ -310,7 +820,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -323,25 +833,79 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                HashSet<Long> locationIds = new HashSet<Long>();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            locationIds.add(
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
                         }
                     }
+                    repackForecasts(db, locationIds);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChange(uri);
                 return returnCount;
+            case ARCHIVE:
+                // Each bulk insert is a batch of days that just went by, which is also when old
+                // enough days can be merged into weeks
+                db.beginTransaction();
+                int archiveCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        normalizeDate(value);
+                        if (!value.containsKey(WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS)) {
+                            value.put(WeatherContract.ArchiveEntry.COLUMN_PERIOD_DAYS, 1);
+                            value.put(WeatherContract.ArchiveEntry.COLUMN_SAMPLES, 1);
+                        }
+                        long _id = db.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, value);
+                        if (_id != -1) {
+                            archiveCount++;
+                        }
+                    }
+                    compactArchive(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyChange(uri);
+                return archiveCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in one transaction.  Forecasts are repacked and observers notified
+     * once at the end, rather than after every operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchChanges batch = new BatchChanges();
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        mBatchChanges.set(batch);
+        try {
+            results = super.applyBatch(operations);
+            rebuildForecastPacks(db, batch.mLocationIds);
+            db.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            db.endTransaction();
+        }
+        for (Uri uri : batch.mUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
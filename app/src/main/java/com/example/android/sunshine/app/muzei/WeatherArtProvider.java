@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.muzei;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.R;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Read-only provider serving the full screen condition images that {@link WeatherMuzeiSource}
+ * publishes, from copies kept on the device.  Once an image has been downloaded, Muzei can
+ * switch back to it without any network access.
+ *
+ * There are only a handful of distinct images, so the copies are never evicted.
+ */
+public class WeatherArtProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherArtProvider.class.getSimpleName();
+
+    private static final String ART_DIRECTORY = "muzei_art";
+    // File names are the hex hash of the image url, which is also all we accept in a uri
+    private static final String ART_NAME_PATTERN = "[0-9a-f]{8}";
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    /**
+     * Makes sure the image at the url is stored on the device, downloading it if needed.  This
+     * blocks, so it must not be called from the main thread.
+     *
+     * @param context Context used for Glide and to find the art directory
+     * @param imageUrl One of the urls from Utility.getImageUrlForWeatherCondition
+     * @return a content uri serving the stored image, or null if it couldn't be downloaded
+     */
+    static Uri cacheArt(Context context, String imageUrl) {
+        String name = String.format(Locale.US, "%08x", imageUrl.hashCode());
+        File artFile = new File(getArtDirectory(context), name);
+        if (!artFile.exists() && !download(context, imageUrl, artFile)) {
+            return null;
+        }
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(context.getString(R.string.muzei_art_authority))
+                .appendPath(name)
+                .build();
+    }
+
+    private static File getArtDirectory(Context context) {
+        return new File(context.getFilesDir(), ART_DIRECTORY);
+    }
+
+    private static boolean download(Context context, String imageUrl, File artFile) {
+        File downloaded;
+        try {
+            downloaded = Glide.with(context)
+                    .load(imageUrl)
+                    .downloadOnly(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
+                    .get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error downloading " + imageUrl, e);
+            return false;
+        }
+
+        // Glide's disk cache can evict the file at any time, so keep our own copy.  Copying to a
+        // temporary file first means the provider never serves a half written image.
+        File directory = artFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Couldn't create " + directory);
+            return false;
+        }
+        File tmpFile = new File(directory, artFile.getName() + ".tmp");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(downloaded);
+            out = new FileOutputStream(tmpFile);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            return tmpFile.renameTo(artFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error storing " + imageUrl, e);
+            return false;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+            tmpFile.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        String name = uri.getLastPathSegment();
+        if (!"r".equals(mode) || name == null || !name.matches(ART_NAME_PATTERN)) {
+            throw new FileNotFoundException("No art at " + uri);
+        }
+        File artFile = new File(getArtDirectory(getContext()), name);
+        return ParcelFileDescriptor.open(artFile, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return "image/*";
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Unknown uri: " + uri);
+    }
+}
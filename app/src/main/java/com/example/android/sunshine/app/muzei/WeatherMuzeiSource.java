@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.muzei;
 
+import android.content.ContentResolver;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
@@ -55,8 +56,8 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildPackedWeatherLocationWithStartDate(location, System.currentTimeMillis());
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
@@ -64,16 +65,34 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
             String desc = cursor.getString(INDEX_SHORT_DESC);
 
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
+            // Only publish a new wallpaper if we have a valid image, and something changed since
+            // the last one: republishing makes Muzei load and decode the image all over again
+            String token = weatherId + "|" + desc + "|" + location;
+            if (imageUrl != null && !isCurrentArtwork(token)) {
+                Uri imageUri = WeatherArtProvider.cacheArt(this, imageUrl);
+                if (imageUri == null) {
+                    // Couldn't store the image, let Muzei try to download it itself
+                    imageUri = Uri.parse(imageUrl);
+                }
                 publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
+                        .imageUri(imageUri)
                         .title(desc)
                         .byline(location)
+                        .token(token)
                         .viewIntent(new Intent(this, MainActivity.class))
                         .build());
             }
         }
         cursor.close();
     }
+
+    /**
+     * @return true if the published artwork has the token and is served from the device
+     */
+    private boolean isCurrentArtwork(String token) {
+        Artwork currentArtwork = getCurrentArtwork();
+        return currentArtwork != null && token.equals(currentArtwork.getToken())
+                && currentArtwork.getImageUri() != null
+                && ContentResolver.SCHEME_CONTENT.equals(currentArtwork.getImageUri().getScheme());
+    }
 }
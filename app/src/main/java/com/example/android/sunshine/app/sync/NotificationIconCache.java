@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+
+/**
+ * Remote art for the weather notification, decoded at exactly the size of a notification large
+ * icon.  Loads never block the caller: the notification is posted with the local art first and
+ * the {@link Listener} upgrades it once the remote art is in.
+ */
+class NotificationIconCache {
+
+    interface Listener {
+        /**
+         * Called on the main thread when the art has been loaded.
+         */
+        void onIconLoaded(Bitmap icon);
+    }
+
+    // Only the icon for today's condition is ever shown, so a few entries are plenty
+    private static final int MAX_ICONS = 4;
+
+    private static final LruCache<String, Bitmap> sIcons = new LruCache<String, Bitmap>(MAX_ICONS);
+
+    private NotificationIconCache() {
+    }
+
+    /**
+     * @return the icon if it has already been loaded at this size, without blocking
+     */
+    static Bitmap get(String artUrl, int width, int height) {
+        return sIcons.get(getKey(artUrl, width, height));
+    }
+
+    /**
+     * Starts loading the icon in the background.  The listener isn't called if the load fails,
+     * in which case the local art simply stays.
+     */
+    static void load(Context context, final String artUrl, final int width, final int height,
+                     final Listener listener) {
+        final Context appContext = context.getApplicationContext();
+        // Glide targets have to be used from the main thread
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Glide.with(appContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .fitCenter()
+                        .into(new SimpleTarget<Bitmap>(width, height) {
+                            @Override
+                            public void onResourceReady(Bitmap icon,
+                                                        GlideAnimation<? super Bitmap> glideAnimation) {
+                                sIcons.put(getKey(artUrl, width, height), icon);
+                                listener.onIconLoaded(icon);
+                            }
+                        });
+            }
+        });
+    }
+
+    private static String getKey(String artUrl, int width, int height) {
+        return width + "x" + height + "/" + artUrl;
+    }
+}
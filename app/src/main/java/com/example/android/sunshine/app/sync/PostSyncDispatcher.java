@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs everything that consumes freshly synced data (widgets, Muzei, the notification, the
+ * wearable) concurrently, once the data is in the database.  The sync adapter hands the
+ * consumers over and returns straight away instead of waiting for each of them in turn.
+ *
+ * Each consumer is cancelled if it runs longer than {@link #CONSUMER_TIMEOUT_SECONDS} once it
+ * has started, and its run times are logged.  Consumers dropped from a full queue are logged and
+ * counted apart from the ones that timed out.
+ */
+class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    private static final int POOL_SIZE = 3;
+    // A few syncs' worth of consumers; if syncs pile up beyond that, the oldest work is dropped
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final long CONSUMER_TIMEOUT_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+            new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        return;
+                    }
+                    // Make room by dropping the oldest queued consumer, which the next sync
+                    // would redo anyway
+                    ConsumerTask dropped = (ConsumerTask) executor.getQueue().poll();
+                    if (dropped != null && dropped.mFinished.compareAndSet(false, true)) {
+                        recordDrop(dropped.mName);
+                    }
+                    executor.execute(r);
+                }
+            });
+    private static final ScheduledThreadPoolExecutor sTimeouts = new ScheduledThreadPoolExecutor(1);
+    static {
+        // Syncs are hours apart, so don't keep idle threads around in between
+        sExecutor.allowCoreThreadTimeOut(true);
+        sTimeouts.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        sTimeouts.allowCoreThreadTimeOut(true);
+    }
+
+    // Guarded by itself
+    private static final HashMap<String, Timings> sTimings = new HashMap<String, Timings>();
+
+    private PostSyncDispatcher() {
+    }
+
+    /**
+     * Runs the consumer in the background, from any thread.
+     *
+     * @param name Names the consumer in the logs
+     * @param consumer Work to run once the synced data is in the database
+     */
+    static void dispatch(final String name, final Runnable consumer) {
+        // Whichever of the consumer, its timeout and a drop finishes first gets to record it
+        final AtomicBoolean finished = new AtomicBoolean();
+        ConsumerTask task = new ConsumerTask(name, new Runnable() {
+            @Override
+            public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+                try {
+                    consumer.run();
+                } catch (RuntimeException e) {
+                    // One broken consumer shouldn't take the others down with it
+                    Log.e(LOG_TAG, name + " failed", e);
+                } finally {
+                    if (finished.compareAndSet(false, true)) {
+                        record(name, SystemClock.elapsedRealtime() - startTime, false);
+                    }
+                }
+            }
+        }, finished);
+        sExecutor.execute(task);
+    }
+
+    private static void record(String name, long millis, boolean timedOut) {
+        synchronized (sTimings) {
+            Timings timings = getTimings(name);
+            timings.mRuns++;
+            timings.mTotalMillis += millis;
+            timings.mMaxMillis = Math.max(timings.mMaxMillis, millis);
+            if (timedOut) {
+                timings.mTimeouts++;
+            }
+            Log.d(LOG_TAG, name + (timedOut ? " timed out after " : " took ") + millis + "ms"
+                    + " (avg " + timings.mTotalMillis / timings.mRuns + "ms, max "
+                    + timings.mMaxMillis + "ms over " + timings.mRuns + " runs, "
+                    + timings.mTimeouts + " timeouts, " + timings.mDrops + " drops)");
+        }
+    }
+
+    private static void recordDrop(String name) {
+        synchronized (sTimings) {
+            Timings timings = getTimings(name);
+            timings.mDrops++;
+            Log.w(LOG_TAG, name + " dropped from a full queue (" + timings.mDrops + " drops)");
+        }
+    }
+
+    private static Timings getTimings(String name) {
+        Timings timings = sTimings.get(name);
+        if (timings == null) {
+            timings = new Timings();
+            sTimings.put(name, timings);
+        }
+        return timings;
+    }
+
+    /**
+     * A consumer as queued on the executor, so one dropped from the queue can be named.
+     */
+    private static class ConsumerTask extends FutureTask<Void> {
+        final String mName;
+        final AtomicBoolean mFinished;
+
+        ConsumerTask(String name, Runnable run, AtomicBoolean finished) {
+            super(run, null);
+            mName = name;
+            mFinished = finished;
+        }
+
+        @Override
+        public void run() {
+            // The timeout counts from here, so time spent waiting behind other consumers in the
+            // queue doesn't count against this one
+            sTimeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFinished.compareAndSet(false, true)) {
+                        cancel(true);
+                        record(mName, TimeUnit.SECONDS.toMillis(CONSUMER_TIMEOUT_SECONDS), true);
+                    }
+                }
+            }, CONSUMER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            super.run();
+        }
+    }
+
+    private static class Timings {
+        int mRuns;
+        int mTimeouts;
+        int mDrops;
+        long mTotalMillis;
+        long mMaxMillis;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+/**
+ * Handles the forecast pushes sent over GCM, so the forecast can be kept fresh without polling.
+ * A push is either an invalidation, which syncs the preferred location if the push is about it,
+ * or a delta, which is written straight to the provider without going to the network.
+ *
+ * Pushes carry a version per location, and anything not newer than the last one handled is
+ * ignored, since GCM may deliver late or twice.  Everything comes in as intent extras, so a local
+ * stand-in for the server only has to start this service.
+ */
+public class PushSyncIntentService extends IntentService {
+    private static final String LOG_TAG = PushSyncIntentService.class.getSimpleName();
+
+    public static final String EXTRA_TYPE = "type";
+    public static final String EXTRA_LOCATION = "location";
+    public static final String EXTRA_VERSION = "version";
+    public static final String EXTRA_FORECAST = "forecast";
+
+    public static final String TYPE_INVALIDATE = "invalidate";
+    public static final String TYPE_DELTA = "delta";
+
+    // Keys of one day in a delta's JSON array.  Only the date is required; temperatures are in
+    // Celsius, like everything the sync adapter stores.
+    private static final String DELTA_DATE = "dt";
+    private static final String[][] DELTA_COLUMNS = {
+            {"id", WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+            {"desc", WeatherContract.WeatherEntry.COLUMN_SHORT_DESC},
+            {"max", WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+            {"min", WeatherContract.WeatherEntry.COLUMN_MIN_TEMP},
+            {"humidity", WeatherContract.WeatherEntry.COLUMN_HUMIDITY},
+            {"pressure", WeatherContract.WeatherEntry.COLUMN_PRESSURE},
+            {"wind", WeatherContract.WeatherEntry.COLUMN_WIND_SPEED},
+            {"deg", WeatherContract.WeatherEntry.COLUMN_DEGREES}
+    };
+
+    private static final String DELTA_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT "
+                    + WeatherContract.LocationEntry._ID + " FROM "
+                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    public PushSyncIntentService() {
+        super("PushSyncIntentService");
+    }
+
+    /**
+     * @return whether the extras of a GCM message are a forecast push for this service
+     */
+    public static boolean isForecastPush(Bundle extras) {
+        String type = extras.getString(EXTRA_TYPE);
+        return TYPE_INVALIDATE.equals(type) || TYPE_DELTA.equals(type);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String type = intent.getStringExtra(EXTRA_TYPE);
+        String location = intent.getStringExtra(EXTRA_LOCATION);
+        long version;
+        try {
+            version = Long.parseLong(intent.getStringExtra(EXTRA_VERSION));
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Ignoring push without a version");
+            return;
+        }
+
+        // The periodic sync only ever fetches the preferred location, so pushes about any other
+        // location have nothing to refresh
+        if (location == null || !location.equals(Utility.getPreferredLocation(this))) {
+            Log.d(LOG_TAG, "Ignoring push for " + location);
+            return;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String locationKey = getString(R.string.pref_push_location);
+        String versionKey = getString(R.string.pref_push_version);
+        if (location.equals(prefs.getString(locationKey, null))
+                && version <= prefs.getLong(versionKey, Long.MIN_VALUE)) {
+            Log.d(LOG_TAG, "Ignoring stale push " + version + " for " + location);
+            return;
+        }
+
+        if (TYPE_DELTA.equals(type) && applyDelta(this, location,
+                intent.getStringExtra(EXTRA_FORECAST))) {
+            Log.d(LOG_TAG, "Applied delta " + version + " for " + location);
+            onForecastChanged(getApplicationContext());
+        } else {
+            // An invalidation, or a delta we can't apply: fetch the whole forecast instead
+            Log.d(LOG_TAG, "Syncing " + location + " for push " + version);
+            SunshineSyncAdapter.syncImmediately(this);
+        }
+        prefs.edit()
+                .putString(locationKey, location)
+                .putLong(versionKey, version)
+                .apply();
+    }
+
+    /**
+     * Writes the days of a delta over the stored forecast.
+     *
+     * @return false if the delta is malformed or about a day that isn't stored, in which case
+     * nothing is written
+     */
+    static boolean applyDelta(Context context, String location, String forecastJsonStr) {
+        if (forecastJsonStr == null) {
+            return false;
+        }
+        ContentValues[] days;
+        String[][] selectionArgs;
+        try {
+            JSONArray dayArray = new JSONArray(forecastJsonStr);
+            days = new ContentValues[dayArray.length()];
+            selectionArgs = new String[dayArray.length()][];
+            for (int i = 0; i < dayArray.length(); i++) {
+                JSONObject day = dayArray.getJSONObject(i);
+                long date = WeatherContract.normalizeDate(day.getLong(DELTA_DATE));
+                ContentValues values = new ContentValues();
+                for (String[] column : DELTA_COLUMNS) {
+                    if (!day.has(column[0])) {
+                        continue;
+                    }
+                    if (WeatherContract.WeatherEntry.COLUMN_SHORT_DESC.equals(column[1])) {
+                        values.put(column[1], day.getString(column[0]));
+                    } else if (WeatherContract.WeatherEntry.COLUMN_WEATHER_ID.equals(column[1])) {
+                        values.put(column[1], day.getInt(column[0]));
+                    } else {
+                        values.put(column[1], day.getDouble(column[0]));
+                    }
+                }
+                days[i] = values;
+                selectionArgs[i] = new String[] {location, Long.toString(date)};
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Malformed delta", e);
+            return false;
+        }
+
+        // All the days are written in one transaction, so that observers hear about the delta
+        // once and it is never half applied.  Only days the sync adapter already stored are
+        // filled in, since a delta doesn't carry a whole row: an update that matches no row
+        // rolls the whole batch back.
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(days.length);
+        for (int i = 0; i < days.length; i++) {
+            if (days[i].size() > 0) {
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(days[i])
+                        .withSelection(DELTA_SELECTION, selectionArgs[i])
+                        .withExpectedCount(1)
+                        .build());
+            }
+        }
+        try {
+            context.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (OperationApplicationException e) {
+            Log.d(LOG_TAG, "Delta for a day that isn't stored", e);
+            return false;
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "Couldn't apply delta", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lets everything outside the app that shows the forecast catch up with a delta, like it
+     * does after a sync.  The app's own screens see the provider's change notifications.
+     */
+    private static void onForecastChanged(final Context context) {
+        PostSyncDispatcher.dispatch("widgets", new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncAdapter.updateWidgets(context);
+            }
+        });
+        PostSyncDispatcher.dispatch("muzei", new Runnable() {
+            @Override
+            public void run() {
+                SunshineSyncAdapter.updateMuzei(context);
+            }
+        });
+        PostSyncDispatcher.dispatch("wearable", new Runnable() {
+            @Override
+            public void run() {
+                WearForecastSender.sendForecast(context);
+            }
+        });
+    }
+}
@@ -7,11 +7,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,6 +24,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -29,19 +32,14 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ForecastArtPreloader;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.example.android.sunshine.app.widget.WidgetArtCache;
+import com.example.android.sunshine.app.widget.WidgetUpdateScheduler;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -55,9 +53,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -69,6 +66,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Remote art that takes longer than this to load is kept for the next notification
+    private static final long MAX_ICON_UPGRADE_DELAY = 60 * 1000;
 
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
@@ -96,37 +95,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private String API_KEY;
 
-    private final GoogleApiClient mGoogleApiClient;
-
-    // Keys for Wear weather DataItem
-    private static final String PATH = "/sunshine-weather-data";
-    private static final String PARAM_WEATHERID = "weather-id";
-    private static final String PARAM_TEMP_LOW = "weather-low";
-    private static final String PARAM_TEMP_HIGH = "weather-high";
-
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
         API_KEY = context.getResources().getString(R.string.open_weathermap_api_key);
-
-        // Create API client for Wear
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-              .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                  @Override
-                  public void onConnected(Bundle bundle) {
-                  }
-                  @Override
-                  public void onConnectionSuspended(int i) {
-                  }})
-              .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                  @Override
-                  public void onConnectionFailed(ConnectionResult connectionResult) {
-                  }
-              })
-              .addApi(Wearable.API)
-              .build();
-
-        mGoogleApiClient.connect();
     }
 
     @Override
@@ -368,29 +340,83 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
 
                 cVVector.add(weatherValues);
-
-                if (i==0) {
-                    updateWearable(getContext(), weatherValues);
-                }
             }
 
+            // Taken before writing, so that anything loaded from the database after this sync
+            // counts as newer than it, see DetailFragment
+            long syncTime = System.currentTimeMillis();
             int inserted = 0;
             // add to database
             if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                // The new days go in and the past ones out in one batch, so that the forecast is
+                // repacked and observers are notified only once
+                ArrayList<ContentProviderOperation> operations =
+                        new ArrayList<ContentProviderOperation>(cVVector.size() + 1);
+                for (ContentValues values : cVVector) {
+                    operations.add(ContentProviderOperation
+                            .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                            .withValues(values)
+                            .build());
+                }
+
+                // delete old data so we don't build up an endless history, keeping a compact
+                // copy of it in the archive
+                long lastPastDay = dayTime.setJulianDay(julianStartDay-1);
+                operations.add(ContentProviderOperation
+                        .newDelete(WeatherContract.WeatherEntry.buildWeatherArchivingUri())
+                        .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                                new String[] {Long.toString(lastPastDay)})
+                        .build());
+                try {
+                    getContext().getContentResolver().applyBatch(
+                            WeatherContract.CONTENT_AUTHORITY, operations);
+                } catch (RemoteException e) {
+                    Log.e(LOG_TAG, "Couldn't store the forecast", e);
+                    return;
+                } catch (OperationApplicationException e) {
+                    Log.e(LOG_TAG, "Couldn't store the forecast", e);
+                    return;
+                }
+
+                final ArrayList<Integer> weatherIds = new ArrayList<Integer>(cVVector.size());
+                for (ContentValues values : cVVector) {
+                    weatherIds.add(values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+                }
+                ForecastArtPreloader.warmConditionArt(getContext(), weatherIds);
+
+                // The data is committed now, so everything that shows it can catch up in the
+                // background while the sync finishes
+                PostSyncDispatcher.dispatch("widgets", new Runnable() {
+                    @Override
+                    public void run() {
+                        // Warm the art first so the detail widget finds it when it rerenders
+                        WidgetArtCache.warm(getContext(), weatherIds);
+                        updateWidgets(getContext());
+                    }
+                });
+                PostSyncDispatcher.dispatch("muzei", new Runnable() {
+                    @Override
+                    public void run() {
+                        updateMuzei(getContext());
+                    }
+                });
+                PostSyncDispatcher.dispatch("notification", new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyWeather();
+                    }
+                });
+                PostSyncDispatcher.dispatch("wearable", new Runnable() {
+                    @Override
+                    public void run() {
+                        WearForecastSender.sendForecast(getContext());
+                    }
+                });
             }
             Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            PreferenceManager.getDefaultSharedPreferences(getContext()).edit()
+                    .putLong(getContext().getString(R.string.pref_last_sync), syncTime)
+                    .apply();
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
         } catch (JSONException e) {
@@ -400,48 +426,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void updateWearable(Context context, ContentValues values) {
-        int weatherId = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
-        double tempLow = values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
-        double tempHigh = values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
-
-        String minTemp = Utility.formatTemperature(context, tempLow);
-        String maxTemp = Utility.formatTemperature(context, tempHigh);
-
-        PutDataMapRequest mRequestMap = PutDataMapRequest.create(PATH);
-        mRequestMap.getDataMap().putInt(PARAM_WEATHERID, weatherId);
-        mRequestMap.getDataMap().putString(PARAM_TEMP_HIGH, maxTemp);
-        mRequestMap.getDataMap().putString(PARAM_TEMP_LOW, minTemp);
-        mRequestMap.getDataMap().putLong("time", new Date().getTime()); // timestamp
-
-        Log.i(LOG_TAG, "Sending data: " + weatherId + ", " + minTemp + ", " + maxTemp);
-
-        PutDataRequest request = mRequestMap.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-            @Override
-            public void onResult(DataApi.DataItemResult dataItemResult) {
-                if (dataItemResult.getStatus().isSuccess()) {
-                    Log.i(LOG_TAG, "Data to wearable");
-                } else {
-                    Log.i(LOG_TAG, "Failed to send data to wearable");
-                }
-            }
-        });
-    }
-
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+    static void updateWidgets(Context context) {
+        // Only widgets whose content changed are told about the new data
+        WidgetUpdateScheduler.onDataUpdated(context);
     }
 
-    private void updateMuzei() {
+    static void updateMuzei(Context context) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
                     .setClass(context, WeatherMuzeiSource.class));
         }
@@ -491,17 +484,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    // Use the remote art if it is already loaded at this size, otherwise post with
+                    // the local art right away and upgrade the icon once the remote art is in
+                    Bitmap largeIcon = null;
+                    boolean loadRemoteIcon = false;
+                    if (!Utility.usingLocalGraphics(context) && artUrl != null) {
+                        largeIcon = NotificationIconCache.get(artUrl, largeIconWidth, largeIconHeight);
+                        loadRemoteIcon = largeIcon == null;
+                    }
+                    if (largeIcon == null) {
                         largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     }
                     String title = context.getString(R.string.app_name);
@@ -514,13 +505,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
+                    final NotificationCompat.Builder mBuilder =
                             new NotificationCompat.Builder(getContext())
                                     .setColor(resources.getColor(R.color.primary_light))
                                     .setSmallIcon(iconId)
                                     .setLargeIcon(largeIcon)
                                     .setContentTitle(title)
-                                    .setContentText(contentText);
+                                    .setContentText(contentText)
+                                    // Upgrading the icon shouldn't sound or vibrate again
+                                    .setOnlyAlertOnce(true);
 
                     // Make something interesting happen when the user clicks on the notification.
                     // In this case, opening the app is sufficient.
@@ -538,11 +531,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                                     PendingIntent.FLAG_UPDATE_CURRENT
                             );
                     mBuilder.setContentIntent(resultPendingIntent);
+                    // Lets a late icon upgrade know the user has already dismissed it
+                    final long postedAt = System.currentTimeMillis();
+                    mBuilder.setDeleteIntent(WeatherNotificationDismissedReceiver
+                            .getDeleteIntent(context, postedAt));
 
-                    NotificationManager mNotificationManager =
+                    final NotificationManager mNotificationManager =
                             (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+                    if (loadRemoteIcon) {
+                        NotificationIconCache.load(context, artUrl, largeIconWidth, largeIconHeight,
+                                new NotificationIconCache.Listener() {
+                                    @Override
+                                    public void onIconLoaded(Bitmap icon) {
+                                        if (!canUpgradeNotificationIcon(postedAt)) {
+                                            return;
+                                        }
+                                        mBuilder.setLargeIcon(icon);
+                                        mNotificationManager.notify(WEATHER_NOTIFICATION_ID,
+                                                mBuilder.build());
+                                    }
+                                });
+                    }
 
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
@@ -554,6 +565,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * @return false if reposting the notification posted at the given time with a better icon
+     * would bring it back after a dismissal, or change it long after it was shown
+     */
+    private static boolean canUpgradeNotificationIcon(long postedAt) {
+        return !WeatherNotificationDismissedReceiver.wasDismissed(postedAt)
+                && System.currentTimeMillis() - postedAt <= MAX_ICON_UPGRADE_DELAY;
+    }
+
     /**
      * Helper method to handle insertion of a new location in the weather database.
      *
@@ -623,6 +643,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    /**
+     * @return true if the last successful sync happened within one sync interval
+     */
+    public static boolean isDataFresh(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long lastSync = prefs.getLong(context.getString(R.string.pref_last_sync), 0);
+        return System.currentTimeMillis() - lastSync < SYNC_INTERVAL * 1000L;
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -23,8 +23,14 @@ public class SunshineWearMessageService extends WearableListenerService {
 
         if ( messageEvent.getPath().equals( WEATHER_REQUEST ) )
         {
-            SunshineSyncAdapter.syncImmediately(this);
+            WearableClient.getInstance(this).onWatchSeen();
+
+            // Answer from the database when it is recent enough, the network is only needed
+            // when the periodic sync is overdue or there is nothing for today
+            if ( !SunshineSyncAdapter.isDataFresh(this) || !WearForecastSender.sendForecast(this) )
+            {
+                SunshineSyncAdapter.syncImmediately(this);
+            }
         }
     }
-
-}
+}
\ No newline at end of file
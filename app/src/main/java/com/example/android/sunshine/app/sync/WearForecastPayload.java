@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodes the whole forecast into the compact binary payload sent to the watch, so that the
+ * watch can show the right day on its own and format temperatures itself.  The watch face's
+ * WeatherPayload decodes it; the two must be changed together.
+ *
+ * Layout, big endian:
+ * <pre>
+ *   byte    format version ({@link #VERSION})
+ *   boolean metric units
+ *   short   number of days
+ *   per day:
+ *     long  date, as stored in the database
+ *     short condition id
+ *     short high, in tenths of a degree Celsius
+ *     short low, in tenths of a degree Celsius
+ * </pre>
+ */
+class WearForecastPayload {
+    static final int VERSION = 1;
+
+    static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+
+    private WearForecastPayload() {
+    }
+
+    /**
+     * @param cursor Forecast rows using {@link #FORECAST_COLUMNS}, sorted by ascending date
+     * @param metric Whether the user wants to see Celsius
+     */
+    static byte[] fromCursor(Cursor cursor, boolean metric) {
+        int dayCount = Math.min(cursor.getCount(), Short.MAX_VALUE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + dayCount * 14);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeBoolean(metric);
+            out.writeShort(dayCount);
+            for (int i = 0; i < dayCount && cursor.moveToPosition(i); i++) {
+                out.writeLong(cursor.getLong(INDEX_DATE));
+                out.writeShort(cursor.getInt(INDEX_WEATHER_ID));
+                out.writeShort(toTenths(cursor.getDouble(INDEX_MAX_TEMP)));
+                out.writeShort(toTenths(cursor.getDouble(INDEX_MIN_TEMP)));
+            }
+        } catch (IOException e) {
+            // Writing to memory can't fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int toTenths(double degrees) {
+        return (int) Math.round(degrees * 10);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.google.android.gms.wearable.PutDataMapRequest;
+
+import java.util.Arrays;
+
+/**
+ * Puts the forecast stored in the database into the data layer, where the watch face reads it.
+ * Used after every sync, and to answer the watch's requests without going to the network.
+ */
+class WearForecastSender {
+    private static final String LOG_TAG = WearForecastSender.class.getSimpleName();
+
+    // Keys for Wear weather DataItem
+    private static final String PATH = "/sunshine-weather-data";
+    private static final String PARAM_FORECAST = "forecast";
+
+    private WearForecastSender() {
+    }
+
+    /**
+     * Sends the forecast for the preferred location from today on.  The put itself is queued on
+     * the shared {@link WearableClient}, so this only blocks for the database query.
+     *
+     * @return false if there is no forecast for today in the database
+     */
+    static boolean sendForecast(Context context) {
+        String location = Utility.getPreferredLocation(context);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildPackedWeatherLocationWithStartDate(location, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherForLocationUri,
+                WearForecastPayload.FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return false;
+        }
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return false;
+        }
+        byte[] forecast = WearForecastPayload.fromCursor(cursor, Utility.isMetric(context));
+        cursor.close();
+
+        // The data layer sends every put to the watch, so only put what the watch doesn't have.
+        // A watch that lost it reads the existing item back from the data layer when it connects.
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String payloadHashKey = context.getString(R.string.pref_wear_payload_hash);
+        final int payloadHash = Arrays.hashCode(forecast);
+        if (prefs.contains(payloadHashKey)
+                && prefs.getInt(payloadHashKey, 0) == payloadHash) {
+            Log.d(LOG_TAG, "Forecast unchanged, not sending it to the wearable");
+            return true;
+        }
+
+        PutDataMapRequest requestMap = PutDataMapRequest.create(PATH);
+        requestMap.getDataMap().putByteArray(PARAM_FORECAST, forecast);
+
+        Log.i(LOG_TAG, "Sending forecast: " + forecast.length + " bytes");
+
+        WearableClient.getInstance(context).put(requestMap.asPutDataRequest(),
+                new WearableClient.PutListener() {
+                    @Override
+                    public void onPutFinished(boolean success) {
+                        if (success) {
+                            Log.i(LOG_TAG, "Data to wearable");
+                            prefs.edit().putInt(payloadHashKey, payloadHash).apply();
+                        } else {
+                            Log.i(LOG_TAG, "Forecast not sent to wearable");
+                        }
+                    }
+                });
+        return true;
+    }
+}
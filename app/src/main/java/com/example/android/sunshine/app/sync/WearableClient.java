@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one connection to the wearable data layer in this process.  It only connects when there
+ * is something to put, puts everything queued by then in one go, and disconnects once it has
+ * been idle for {@link #IDLE_DISCONNECT_SECONDS}.
+ *
+ * Phones without Android Wear pay for at most one connection every
+ * {@link #NO_WEAR_RECHECK_MILLIS}: puts are dropped without binding to Play Services until then,
+ * or until {@link #onWatchSeen()} says a watch is around.  When Wear is there but no watch is
+ * connected, e.g. one briefly out of range, puts are only dropped for
+ * {@link #NO_NODE_RECHECK_MILLIS}.
+ */
+class WearableClient {
+    private static final String LOG_TAG = WearableClient.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final long IDLE_DISCONNECT_SECONDS = 60;
+    private static final long NO_WEAR_RECHECK_MILLIS = TimeUnit.HOURS.toMillis(6);
+    // Just enough to not reconnect for each put of one sync
+    private static final long NO_NODE_RECHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    interface PutListener {
+        /**
+         * Called on the client's thread once the put is done, or dropped.
+         */
+        void onPutFinished(boolean success);
+    }
+
+    private static WearableClient sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    // Connects, puts and disconnects all happen on this one thread
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1);
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable mDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(LOG_TAG, "Idle, disconnecting");
+            mGoogleApiClient.disconnect();
+        }
+    };
+
+    // Requests not put yet, by path, so a newer item replaces one still waiting.  Guarded by
+    // itself.
+    private final LinkedHashMap<String, PendingPut> mPending =
+            new LinkedHashMap<String, PendingPut>();
+
+    // Only used on the client's thread
+    private ScheduledFuture<?> mPendingDisconnect;
+    // Puts are dropped without connecting until this elapsed realtime
+    private volatile long mSkipConnectUntil;
+
+    private WearableClient(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                .addApi(Wearable.API)
+                .build();
+        mExecutor.setKeepAliveTime(IDLE_DISCONNECT_SECONDS * 2, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static synchronized WearableClient getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearableClient(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues a put, which happens in the background as soon as possible.
+     */
+    void put(PutDataRequest request, PutListener listener) {
+        boolean flushScheduled;
+        synchronized (mPending) {
+            flushScheduled = !mPending.isEmpty();
+            PendingPut replaced = mPending.put(request.getUri().getPath(),
+                    new PendingPut(request, listener));
+            if (replaced != null) {
+                replaced.mListener.onPutFinished(false);
+            }
+        }
+        if (!flushScheduled) {
+            mExecutor.execute(mFlush);
+        }
+    }
+
+    /**
+     * Tells the client a watch has been in touch, so puts shouldn't be dropped any more.
+     */
+    void onWatchSeen() {
+        mSkipConnectUntil = 0;
+    }
+
+    private void flush() {
+        ArrayList<PendingPut> batch;
+        synchronized (mPending) {
+            batch = new ArrayList<PendingPut>(mPending.values());
+            mPending.clear();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (SystemClock.elapsedRealtime() < mSkipConnectUntil) {
+            finish(batch, false);
+            return;
+        }
+
+        if (mPendingDisconnect != null) {
+            mPendingDisconnect.cancel(false);
+            mPendingDisconnect = null;
+        }
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult connectionResult =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.d(LOG_TAG, "Couldn't connect: " + connectionResult);
+                if (connectionResult.getErrorCode() == ConnectionResult.API_UNAVAILABLE) {
+                    // No Android Wear on this phone
+                    mSkipConnectUntil = SystemClock.elapsedRealtime() + NO_WEAR_RECHECK_MILLIS;
+                }
+                finish(batch, false);
+                return;
+            }
+        }
+
+        if (Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await().getNodes().isEmpty()) {
+            Log.d(LOG_TAG, "No watch connected, dropping " + batch.size() + " puts");
+            mSkipConnectUntil = SystemClock.elapsedRealtime() + NO_NODE_RECHECK_MILLIS;
+            mGoogleApiClient.disconnect();
+            finish(batch, false);
+            return;
+        }
+
+        for (PendingPut put : batch) {
+            DataApi.DataItemResult result =
+                    Wearable.DataApi.putDataItem(mGoogleApiClient, put.mRequest).await();
+            put.mListener.onPutFinished(result.getStatus().isSuccess());
+        }
+        mPendingDisconnect =
+                mExecutor.schedule(mDisconnect, IDLE_DISCONNECT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void finish(ArrayList<PendingPut> batch, boolean success) {
+        for (PendingPut put : batch) {
+            put.mListener.onPutFinished(success);
+        }
+    }
+
+    private static class PendingPut {
+        final PutDataRequest mRequest;
+        final PutListener mListener;
+
+        PendingPut(PutDataRequest request, PutListener listener) {
+            mRequest = request;
+            mListener = listener;
+        }
+    }
+}
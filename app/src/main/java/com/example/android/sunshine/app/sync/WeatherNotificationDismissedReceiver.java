@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Remembers that the user dismissed the weather notification, so an icon upgrade that finishes
+ * loading afterwards doesn't bring it back.  Only the process that posted the notification can
+ * upgrade it, so keeping this in memory is enough.
+ */
+public class WeatherNotificationDismissedReceiver extends BroadcastReceiver {
+    private static final String EXTRA_POSTED_AT = "posted_at";
+
+    // When the dismissed notification was posted.  Only used from the main thread, where both
+    // this receiver and the icon loads run.
+    private static long sDismissedPostedAt;
+
+    /**
+     * @param postedAt When the notification is posted, which identifies it in
+     *                 {@link #wasDismissed(long)}
+     */
+    static PendingIntent getDeleteIntent(Context context, long postedAt) {
+        Intent intent = new Intent(context, WeatherNotificationDismissedReceiver.class)
+                .putExtra(EXTRA_POSTED_AT, postedAt);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * @return whether the notification posted at the given time has been dismissed
+     */
+    static boolean wasDismissed(long postedAt) {
+        return sDismissedPostedAt == postedAt;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        sDismissedPostedAt = intent.getLongExtra(EXTRA_POSTED_AT, 0);
+    }
+}
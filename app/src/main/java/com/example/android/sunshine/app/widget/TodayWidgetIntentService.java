@@ -26,6 +26,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
@@ -33,6 +34,10 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -50,6 +55,10 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
 
+    // What was last pushed to each widget id.  Only used from the service's worker thread, and
+    // simply starts empty again if the process is killed.
+    private static final SparseArray<String> sLastRendered = new SparseArray<String>();
+
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
@@ -63,8 +72,8 @@ public class TodayWidgetIntentService extends IntentService {
 
         // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildPackedWeatherLocationWithStartDate(location, System.currentTimeMillis());
         Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (data == null) {
@@ -85,12 +94,14 @@ public class TodayWidgetIntentService extends IntentService {
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
         data.close();
 
-        // Perform this loop procedure for each Today widget
+        // Widgets of the same size get exactly the same RemoteViews, so group the widgets by
+        // layout and render each layout once
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        SparseArray<ArrayList<Integer>> widgetIdsByLayout = new SparseArray<ArrayList<Integer>>();
         for (int appWidgetId : appWidgetIds) {
             // Find the correct layout based on the widget's width
             int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
             int layoutId;
             if (widgetWidth >= largeWidth) {
                 layoutId = R.layout.widget_today_large;
@@ -99,6 +110,42 @@ public class TodayWidgetIntentService extends IntentService {
             } else {
                 layoutId = R.layout.widget_today_small;
             }
+            ArrayList<Integer> widgetIds = widgetIdsByLayout.get(layoutId);
+            if (widgetIds == null) {
+                widgetIds = new ArrayList<Integer>();
+                widgetIdsByLayout.put(layoutId, widgetIds);
+            }
+            widgetIds.add(appWidgetId);
+        }
+
+        // A data update that didn't change what the widget shows doesn't need a push.  Any
+        // other update (new widget, resize, reboot) might be for a host that lost its views.
+        boolean onlyIfChanged = SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
+        String content = weatherArtResourceId + "|" + description + "|" +
+                formattedMaxTemperature + "|" + formattedMinTemperature;
+
+        // Create an Intent to launch MainActivity
+        Intent launchIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
+
+        for (int i = 0; i < widgetIdsByLayout.size(); i++) {
+            int layoutId = widgetIdsByLayout.keyAt(i);
+            String rendered = layoutId + "|" + content;
+            ArrayList<Integer> widgetIds = widgetIdsByLayout.valueAt(i);
+            int[] changedIds = new int[widgetIds.size()];
+            int changedCount = 0;
+            for (int appWidgetId : widgetIds) {
+                if (!onlyIfChanged || !rendered.equals(sLastRendered.get(appWidgetId))) {
+                    changedIds[changedCount++] = appWidgetId;
+                }
+            }
+            if (changedCount == 0) {
+                continue;
+            }
+            if (changedCount < changedIds.length) {
+                changedIds = Arrays.copyOf(changedIds, changedCount);
+            }
+
             RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
             // Add the data to the RemoteViews
@@ -110,14 +157,13 @@ public class TodayWidgetIntentService extends IntentService {
             views.setTextViewText(R.id.widget_description, description);
             views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
             views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
             views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Tell the AppWidgetManager to perform an update on all the widgets with this layout
+            appWidgetManager.updateAppWidget(changedIds, views);
+            for (int appWidgetId : changedIds) {
+                sLastRendered.put(appWidgetId, rendered);
+            }
         }
     }
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache of remote condition art already scaled down to the size the detail widget shows it at.
+ *
+ * Every bitmap set on a RemoteViews is copied into the binder transaction that sends the row to
+ * the launcher, and all of a process's transactions share a buffer of about 1MB.  Art is
+ * therefore never larger than {@link #MAX_BITMAP_BYTES}, whatever the screen density.
+ *
+ * Loads block, so none of these methods may be called from the main thread.
+ */
+public class WidgetArtCache {
+    private static final String LOG_TAG = WidgetArtCache.class.getSimpleName();
+
+    // 128x128 ARGB_8888
+    static final int MAX_BITMAP_BYTES = 64 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    // Plenty for every condition OpenWeatherMap reports, at one or two sizes
+    private static final int CACHE_BYTES = 1024 * 1024;
+
+    // A row waits this long at most for its art, then shows the local graphic
+    private static final long LOAD_TIMEOUT_SECONDS = 10;
+    // After a failed load, e.g. while offline, rows use the local graphics for this long instead
+    // of each waiting on the same load again
+    private static final long FAILURE_RETRY_MILLIS = 60 * 1000;
+    private static final int MAX_FAILURES = 32;
+
+    private static final LruCache<String, Bitmap> sCache = new LruCache<String, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+    // When loads of each key last failed, in SystemClock.elapsedRealtime() terms
+    private static final LruCache<String, Long> sFailures =
+            new LruCache<String, Long>(MAX_FAILURES);
+
+    private WidgetArtCache() {
+    }
+
+    /**
+     * @param context Context used for Glide and to read the art pack preference
+     * @param weatherId from OpenWeatherMap API response
+     * @return the widget sized art for the condition, or null if the user picked the local
+     * graphics or the art couldn't be loaded, now or within the last minute.
+     */
+    static Bitmap getArt(Context context, int weatherId) {
+        if (Utility.usingLocalGraphics(context)) {
+            return null;
+        }
+        String url = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        if (null == url) {
+            return null;
+        }
+        int size = getArtSize(context);
+        // The url already tells conditions and art packs apart
+        String key = size + "/" + url;
+        Bitmap art = sCache.get(key);
+        if (null == art) {
+            Long failedAt = sFailures.get(key);
+            if (null != failedAt
+                    && SystemClock.elapsedRealtime() - failedAt < FAILURE_RETRY_MILLIS) {
+                return null;
+            }
+            art = load(context, url, size);
+            if (null != art) {
+                sCache.put(key, art);
+                sFailures.remove(key);
+            } else {
+                sFailures.put(key, SystemClock.elapsedRealtime());
+            }
+        }
+        return art;
+    }
+
+    /**
+     * Loads the art for every distinct condition, so that the detail widget doesn't have to wait
+     * on the network for each row when it is told about new data.  Meant to be called right after
+     * a sync, from the sync thread.
+     *
+     * @param context Context used for Glide and to read the art pack preference
+     * @param weatherIds condition ids returned by OpenWeatherMap
+     */
+    public static void warm(Context context, Collection<Integer> weatherIds) {
+        if (Utility.usingLocalGraphics(context)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        for (int weatherId : new HashSet<Integer>(weatherIds)) {
+            getArt(appContext, weatherId);
+        }
+    }
+
+    /**
+     * @return the side in pixels of the art in a detail widget row, capped so that one bitmap
+     * stays within {@link #MAX_BITMAP_BYTES}.
+     */
+    private static int getArtSize(Context context) {
+        int size = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        int maxSize = (int) Math.sqrt(MAX_BITMAP_BYTES / BYTES_PER_PIXEL);
+        return Math.min(size, maxSize);
+    }
+
+    private static Bitmap load(Context context, String url, int size) {
+        try {
+            return Glide.with(context)
+                    .load(url)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(size, size).get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            Log.e(LOG_TAG, "Error retrieving widget art from " + url, e);
+            return null;
+        }
+    }
+}
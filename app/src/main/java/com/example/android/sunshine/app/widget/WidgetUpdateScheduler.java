@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.widget;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * Decides which widgets need to hear about new weather data after a sync.
+ *
+ * Each widget type gets a fingerprint of exactly what it displays (formatted in the current
+ * units).  A widget type whose fingerprint didn't change isn't told about the sync at all, and
+ * widget types that are updated more than once within {@link #MIN_UPDATE_INTERVAL} have the
+ * later updates coalesced into a single one at the end of the interval.
+ */
+public class WidgetUpdateScheduler {
+    private static final String LOG_TAG = WidgetUpdateScheduler.class.getSimpleName();
+
+    // Syncs closer together than this only update the widgets once
+    private static final long MIN_UPDATE_INTERVAL = 60 * 1000;
+
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private WidgetUpdateScheduler() {
+    }
+
+    /**
+     * Tells the widgets whose content changed about new data.  Queries the content provider, so
+     * it must not be called from the main thread.
+     */
+    public static void onDataUpdated(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        boolean hasTodayWidgets = hasWidgets(context, appWidgetManager, TodayWidgetProvider.class);
+        boolean hasDetailWidgets = hasWidgets(context, appWidgetManager, DetailWidgetProvider.class);
+        if (!hasTodayWidgets && !hasDetailWidgets) {
+            return;
+        }
+
+        String location = Utility.getPreferredLocation(context);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildPackedWeatherLocationWithStartDate(location, System.currentTimeMillis());
+        Cursor data = context.getContentResolver().query(weatherForLocationUri, WIDGET_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return;
+        }
+        // The today widget shows the first row, the detail widget all of them
+        StringBuilder todayContent = new StringBuilder();
+        StringBuilder detailContent = new StringBuilder();
+        while (data.moveToNext()) {
+            int weatherId = data.getInt(INDEX_WEATHER_ID);
+            String row = weatherId + "|" + data.getString(INDEX_SHORT_DESC) + "|"
+                    + Utility.formatTemperature(context, data.getDouble(INDEX_MAX_TEMP)) + "|"
+                    + Utility.formatTemperature(context, data.getDouble(INDEX_MIN_TEMP));
+            if (data.isFirst()) {
+                todayContent.append(row);
+            }
+            // The detail rows also show a relative day name and the remote art
+            detailContent.append(Utility.getFriendlyDayString(context, data.getLong(INDEX_DATE),
+                    false))
+                    .append('|').append(row)
+                    .append('|').append(Utility.getArtUrlForWeatherCondition(context, weatherId))
+                    .append('\n');
+        }
+        data.close();
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (hasTodayWidgets) {
+            scheduleUpdate(context, prefs, TodayWidgetProvider.class,
+                    context.getString(R.string.pref_widget_today_fingerprint),
+                    context.getString(R.string.pref_widget_today_last_update),
+                    todayContent.toString().hashCode());
+        }
+        if (hasDetailWidgets) {
+            scheduleUpdate(context, prefs, DetailWidgetProvider.class,
+                    context.getString(R.string.pref_widget_detail_fingerprint),
+                    context.getString(R.string.pref_widget_detail_last_update),
+                    detailContent.toString().hashCode());
+        }
+    }
+
+    private static boolean hasWidgets(Context context, AppWidgetManager appWidgetManager,
+                                      Class<?> provider) {
+        return appWidgetManager.getAppWidgetIds(new ComponentName(context, provider)).length > 0;
+    }
+
+    private static void scheduleUpdate(Context context, SharedPreferences prefs, Class<?> provider,
+                                       String fingerprintKey, String lastUpdateKey,
+                                       int fingerprint) {
+        if (prefs.contains(fingerprintKey) && prefs.getInt(fingerprintKey, 0) == fingerprint) {
+            String skippedKey = context.getString(R.string.pref_widget_skipped_renders);
+            int skipped = prefs.getInt(skippedKey, 0) + 1;
+            prefs.edit().putInt(skippedKey, skipped).apply();
+            Log.d(LOG_TAG, "Nothing visible changed for " + provider.getSimpleName()
+                    + ", skipped its update (" + skipped + " widget renders skipped so far)");
+            return;
+        }
+
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setClass(context, provider);
+        long now = System.currentTimeMillis();
+        long nextAllowedUpdate = prefs.getLong(lastUpdateKey, 0) + MIN_UPDATE_INTERVAL;
+        long updateTime;
+        if (now >= nextAllowedUpdate) {
+            context.sendBroadcast(dataUpdatedIntent);
+            updateTime = now;
+        } else {
+            // The widget requeries when the alarm goes off, so replacing any alarm that is
+            // already pending still shows the latest data
+            PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                    dataUpdatedIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+            AlarmManager alarmManager =
+                    (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.set(AlarmManager.RTC, nextAllowedUpdate, pendingIntent);
+            updateTime = nextAllowedUpdate;
+            Log.d(LOG_TAG, "Deferred " + provider.getSimpleName() + " update by "
+                    + (nextAllowedUpdate - now) + "ms");
+        }
+        prefs.edit()
+                .putInt(fingerprintKey, fingerprint)
+                .putLong(lastUpdateKey, updateTime)
+                .apply();
+    }
+}
@@ -20,21 +20,21 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
+import android.util.Base64;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
@@ -47,13 +47,17 @@ import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
@@ -83,41 +87,146 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * How many frames the frame time measurements are averaged over.
+     */
+    private static final int FRAMES_PER_LOG = 60;
+
+    /**
+     * Text for every value the hour and the minutes or seconds can take, so that drawing a frame
+     * never has to format anything.
+     */
+    private static final String[] HOUR_TEXT = new String[24];
+    private static final String[] MINUTE_SECOND_TEXT = new String[60];
+    static {
+        for (int i = 0; i < HOUR_TEXT.length; i++) {
+            HOUR_TEXT[i] = String.format("%02d", i);
+        }
+        for (int i = 0; i < MINUTE_SECOND_TEXT.length; i++) {
+            MINUTE_SECOND_TEXT[i] = String.format(" %02d", i);
+        }
+    }
+
     /**
      * DataItem keys
      */
-    private static final String PARAM_WEATHERID = "weather-id";
-    private static final String PARAM_TEMP_LOW = "weather-low";
-    private static final String PARAM_TEMP_HIGH = "weather-high";
+    private static final String PARAM_FORECAST = "forecast";
 
     private static final String PATH = "/sunshine-weather-data";
+    private static final String WEATHER_REQUEST_PATH = "/sunshine/weather-request";
 
-    GoogleApiClient mGoogleApiClient;
+    /**
+     * The last forecast received is kept here, so a new engine can show it straight away.
+     */
+    private static final String PREFS_NAME = "weather";
+    private static final String PREF_FORECAST = "forecast";
+    private static final String PREF_RECEIVED_TIME = "received-time";
+    private static final String PREF_REQUESTED_TIME = "requested-time";
+
+    /**
+     * The phone syncs every few hours and sends the forecast when it changes.  If nothing arrived
+     * for longer than this, ask for it (at most once per period).
+     */
+    private static final long STALE_WEATHER_MS = TimeUnit.HOURS.toMillis(6);
 
-    // Weather data
-    private Bitmap mWeatherIcon;
-    private Bitmap mWeatherIconAmbient;
+    GoogleApiClient mGoogleApiClient;
+    // Whether a weather request is on its way to the phone.  Only used from the main thread.
+    private boolean mWeatherRequestPending;
+
+    // The weather is decoded and its bitmaps built on this thread, never on the one that draws
+    private HandlerThread mWeatherThread;
+    private Handler mWeatherHandler;
+    // Only used on the weather thread
+    private WeatherPayload mForecast;
+    private WeatherIconCache mIconCache;
+    private WeatherPayload mPublishedForecast;
+    private int mPublishedDay = -1;
+    private int mPublishedIconSize;
+
+    // Largest size the icon may be drawn at, known once an engine has a surface
+    private volatile int mMaxIconSize;
+
+    // Replaced in a single write once fully built, and read once per frame by the engines
+    private volatile WeatherState mWeatherState;
     private static final char DEGREES = (char) 0x00B0;
-    private String mWeatherHigh = "?" + DEGREES;
-    private String mWeatherLow = "?" + DEGREES;
-    private int mWeatherId;
+    private static final String UNKNOWN_TEMPERATURE = "?" + DEGREES;
 
+    // Engines to redraw when the weather changes, only used on the main thread
+    private final ArrayList<Engine> mEngines = new ArrayList<>();
+    private final Handler mMainHandler = new Handler();
+    private final Runnable mInvalidateEngines = new Runnable() {
+        @Override
+        public void run() {
+            for (Engine engine : mEngines) {
+                engine.invalidate();
+            }
+        }
+    };
 
     @Override
-    public Engine onCreateEngine() {
+    public void onCreate() {
+        super.onCreate();
+
+        mWeatherThread = new HandlerThread("SunshineWeather");
+        mWeatherThread.start();
+        mWeatherHandler = new Handler(mWeatherThread.getLooper());
+        mIconCache = new WeatherIconCache(getResources());
+        // Show the last forecast we got until the phone sends a new one
+        mWeatherHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String forecast = getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                      .getString(PREF_FORECAST, null);
+                if (forecast != null) {
+                    mForecast = WeatherPayload.decode(Base64.decode(forecast, Base64.DEFAULT));
+                }
+                publishTodaysWeather();
+            }
+        });
+
+        // The connection lasts as long as the service, whichever engines come and go
         mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFace.this)
               .addConnectionCallbacks(this)
               .addOnConnectionFailedListener(this)
               .addApi(Wearable.API)
               .build();
         mGoogleApiClient.connect();
+    }
+
+    @Override
+    public Engine onCreateEngine() {
         return new Engine();
     }
 
+    @Override
+    public void onDestroy() {
+        if (mGoogleApiClient.isConnected()) {
+            Wearable.DataApi.removeListener(mGoogleApiClient, this);
+        }
+        mGoogleApiClient.disconnect();
+        mMainHandler.removeCallbacks(mInvalidateEngines);
+        mWeatherThread.quit();
+        super.onDestroy();
+    }
+
     @Override
     public void onConnected(Bundle bundle) {
         Wearable.DataApi.addListener(mGoogleApiClient, this);
         Log.i(LOG_TAG, "Sunshine Watch connected");
+
+        // The phone only puts the forecast when it changes, so start from what is already there
+        Wearable.DataApi.getDataItems(mGoogleApiClient).setResultCallback(
+              new ResultCallback<DataItemBuffer>() {
+                  @Override
+                  public void onResult(DataItemBuffer dataItems) {
+                      for (DataItem item : dataItems) {
+                          onWeatherItem(item, false);
+                      }
+                      dataItems.release();
+                  }
+              });
+        // Engines created before the connection couldn't ask yet
+        requestWeatherUpdateIfStale();
     }
 
     @Override
@@ -136,21 +245,156 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
         Log.i(LOG_TAG, "Sunshine Watch data events");
 
         for (DataEvent event : dataEventBuffer) {
-
             if (event.getType() == DataEvent.TYPE_CHANGED) {
-                DataItem item = event.getDataItem();
-                if (item.getUri().getPath().compareTo(PATH) == 0) {
-                    DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                    mWeatherId = dataMap.getInt(PARAM_WEATHERID);
-                    mWeatherIcon = BitmapFactory.decodeResource(
-                          getResources(),
-                          getIconResourceForWeatherCondition(mWeatherId));
-                    mWeatherIconAmbient = toGrayscale(mWeatherIcon);
-                    mWeatherHigh = dataMap.getString(PARAM_TEMP_HIGH);
-                    mWeatherLow = dataMap.getString(PARAM_TEMP_LOW);
+                onWeatherItem(event.getDataItem(), true);
+            }
+        }
+    }
+
+    /**
+     * @param changed Whether the item is new, rather than the one that was already there
+     */
+    private void onWeatherItem(DataItem item, boolean changed) {
+        if (item.getUri().getPath().compareTo(PATH) != 0) {
+            return;
+        }
+        // Only pull the bytes out here, the item isn't valid once the callback returns
+        DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+        final byte[] payload = dataMap.getByteArray(PARAM_FORECAST);
+        final boolean persist = changed;
+        mWeatherHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                WeatherPayload forecast = WeatherPayload.decode(payload);
+                if (forecast == null) {
+                    return;
+                }
+                if (persist) {
+                    getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                          .putString(PREF_FORECAST, Base64.encodeToString(payload, Base64.DEFAULT))
+                          .putLong(PREF_RECEIVED_TIME, System.currentTimeMillis())
+                          .apply();
                 }
+                mForecast = forecast;
+                publishTodaysWeather();
             }
+        });
+    }
+
+    /**
+     * Makes the engines pick up today's weather, e.g. after midnight.  Does nothing if it is
+     * already showing.
+     */
+    private void refreshTodaysWeather() {
+        mWeatherHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                publishTodaysWeather();
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread when an engine's surface size is known.
+     */
+    private void setMaxIconSize(int maxIconSize) {
+        if (maxIconSize != mMaxIconSize) {
+            mMaxIconSize = maxIconSize;
+            refreshTodaysWeather();
+        }
+    }
+
+    /**
+     * Builds the state for today's forecast, publishes it and redraws the engines.  Must be
+     * called on the weather thread.
+     */
+    private void publishTodaysWeather() {
+        // The phone sends the days ahead too, so today can be picked here
+        int today = mForecast == null ? -1 : mForecast.findDay(System.currentTimeMillis());
+        int maxIconSize = mMaxIconSize;
+        if (mForecast == mPublishedForecast && today == mPublishedDay
+              && maxIconSize == mPublishedIconSize && mWeatherState != null) {
+            return;
+        }
+
+        int weatherId;
+        String high;
+        String low;
+        if (today != -1) {
+            weatherId = mForecast.getWeatherId(today);
+            high = mForecast.getFormattedHigh(today);
+            low = mForecast.getFormattedLow(today);
+        } else if (mWeatherState == null) {
+            // Nothing known yet
+            weatherId = 0;
+            high = UNKNOWN_TEMPERATURE;
+            low = UNKNOWN_TEMPERATURE;
+        } else if (maxIconSize != mPublishedIconSize) {
+            // Keep showing what we have, at the new size
+            weatherId = mWeatherState.mWeatherId;
+            high = mWeatherState.mHigh;
+            low = mWeatherState.mLow;
+        } else {
+            // Keep showing what we have rather than nothing
+            return;
         }
+        WeatherIconCache.Icons icons =
+              mIconCache.get(getIconResourceForWeatherCondition(weatherId), maxIconSize);
+        mWeatherState = new WeatherState(weatherId, icons.mIcon, icons.mIconAmbient, high, low);
+        mPublishedForecast = mForecast;
+        mPublishedDay = today;
+        mPublishedIconSize = maxIconSize;
+        mMainHandler.post(mInvalidateEngines);
+    }
+
+    /**
+     * Asks the phone for the weather if none has arrived in {@link #STALE_WEATHER_MS}, and it
+     * hasn't been asked in that time either.  Only a request that reached the phone counts, so
+     * one made while disconnected or out of range is tried again next time.
+     */
+    private void requestWeatherUpdateIfStale() {
+        if (mWeatherRequestPending || !mGoogleApiClient.isConnected()) {
+            // onConnected asks once the client is connected
+            return;
+        }
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        long lastHeard = Math.max(prefs.getLong(PREF_RECEIVED_TIME, 0),
+              prefs.getLong(PREF_REQUESTED_TIME, 0));
+        if (System.currentTimeMillis() - lastHeard < STALE_WEATHER_MS) {
+            return;
+        }
+        mWeatherRequestPending = true;
+
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(
+              new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                  int mSendsLeft;
+
+                  @Override
+                  public void onResult(NodeApi.GetConnectedNodesResult result) {
+                      mSendsLeft = result.getNodes().size();
+                      if (mSendsLeft == 0) {
+                          mWeatherRequestPending = false;
+                          return;
+                      }
+                      for (Node node : result.getNodes()) {
+                          Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                WEATHER_REQUEST_PATH, null)
+                                .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                                    @Override
+                                    public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                                        Log.i(LOG_TAG, "Sent request for weather info:" + sendMessageResult.getStatus());
+                                        if (sendMessageResult.getStatus().isSuccess()) {
+                                            prefs.edit().putLong(PREF_REQUESTED_TIME,
+                                                  System.currentTimeMillis()).apply();
+                                        }
+                                        if (--mSendsLeft == 0) {
+                                            mWeatherRequestPending = false;
+                                        }
+                                    }
+                                });
+                      }
+                  }
+              });
     }
 
     private class Engine extends CanvasWatchFaceService.Engine {
@@ -176,6 +420,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
         Paint mHiTempPaint;
         Paint mLoTempPaint;
         Paint mDatePaint;
+        Paint mIconPaint;
 
         // Colors
         int mBackgroundColor;
@@ -201,6 +446,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
         SimpleDateFormat mDateFormat;
         String mDateFormatString = "EEE, d MMM";
 
+        // Date and year text, only formatted again when the day changes
+        String mDateText;
+        String mYearText;
+        int mDateTextDay = -1;
+        int mDateTextYear;
+
+        // Everything but the time is rendered into this bitmap when it changes, and the bitmap
+        // is drawn in one go on every frame
+        Bitmap mStaticLayer;
+        Canvas mStaticLayerCanvas;
+        boolean mStaticLayerDirty = true;
+        WeatherState mStaticLayerWeather;
+
+        // Frame time measurements, logged when the log tag is set to DEBUG
+        int mFrameCount;
+        long mFrameNanos;
+        long mMaxFrameNanos;
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -228,6 +491,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
             mHiTempPaint = createTextPaint(mTemperatureColor);
             mLoTempPaint = createTextPaint(mTemperatureColor);
             mDatePaint = createTextPaint(resources.getColor(R.color.digital_text));
+            mIconPaint = new Paint();
 
             mLoTempPaint.setTextAlign(Paint.Align.RIGHT);
             mHiTempPaint.setTextAlign(Paint.Align.LEFT);
@@ -236,18 +500,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
             mCalendar = Calendar.getInstance();
             mDate = new Date();
 
-            // init weather icon
-            mWeatherIcon = BitmapFactory.decodeResource(resources,  getIconResourceForWeatherCondition(mWeatherId));
-            mWeatherIconAmbient = toGrayscale(mWeatherIcon);
+            mEngines.add(this);
 
             initFormats();
 
-            requestWeatherUpdate();
+            requestWeatherUpdateIfStale();
+        }
+
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            // The icon sits between the temperatures, so it never needs more than half the face
+            setMaxIconSize(Math.min(width, height) / 2);
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mEngines.remove(this);
             super.onDestroy();
         }
 
@@ -265,21 +535,15 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
             Log.d(LOG_TAG, "onVisibilityChanged: " + visible);
 
             if (visible) {
-                mGoogleApiClient.connect();
-                Log.d(LOG_TAG, "mGoogleApiClient: " + mGoogleApiClient.isConnecting());
-
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 initFormats();
+
+                requestWeatherUpdateIfStale();
             } else {
                 unregisterReceiver();
-
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, SunshineWatchFace.this);
-                    mGoogleApiClient.disconnect();
-                }
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -289,17 +553,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
 
         private void initFormats() {
             mDateFormat = new SimpleDateFormat(mDateFormatString, Locale.getDefault());
-        }
-
-        // requests a weather data sync from the mobile app
-        private void requestWeatherUpdate() {
-            Wearable.MessageApi.sendMessage(mGoogleApiClient, "", "/sunshine/weather-request", null)
-                  .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
-                      @Override
-                      public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-                          Log.i(LOG_TAG, "Sent request for weather info:" + sendMessageResult.getStatus());
-                      }
-                  });
+            // The time zone or locale may have changed, so the date has to be formatted again
+            mDateTextDay = -1;
         }
 
         private void registerReceiver() {
@@ -343,6 +598,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
             mLoTempPaint.setTextSize(tempTextSize);
             mDatePaint.setTextSize(dateTextSize);
 
+            mStaticLayerDirty = true;
+
             // calculate offsets to center time
             mTimeXOffset = (mTimePaint.measureText("12") + mMinPaint.measureText(String.format(" %02d", 55))) / 2;
             mMinXOffset = mTimePaint.measureText("12");
@@ -372,6 +629,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
                     mDatePaint.setAntiAlias(!inAmbientMode);
                 }
 
+                // The static layer's colors depend on the mode
+                mStaticLayerDirty = true;
                 if (inAmbientMode) {
                     mBackgroundPaint.setColor(mBackgroundColorAmbient);
                     mHiTempPaint.setColor(Color.WHITE);
@@ -392,22 +651,47 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long startTime = System.nanoTime();
 
             int centerX = bounds.width() >> 1;
-            int centerY = bounds.height() >> 1;
 
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
             mDate.setTime(now);
 
-            // Format time:
+            // Time text: everything is precomputed, so nothing is allocated per frame
             int hour = mCalendar.get(Calendar.HOUR);
-            String hours = hour == 0 ? "12" : String.format("%02d", mCalendar.get(Calendar.HOUR_OF_DAY));
-            String minutes = String.format(" %02d", mCalendar.get(Calendar.MINUTE));
-            String seconds = String.format(" %02d", mCalendar.get(Calendar.SECOND));
+            String hours = hour == 0 ? "12" : HOUR_TEXT[mCalendar.get(Calendar.HOUR_OF_DAY)];
+            String minutes = MINUTE_SECOND_TEXT[mCalendar.get(Calendar.MINUTE)];
+            String seconds = MINUTE_SECOND_TEXT[mCalendar.get(Calendar.SECOND)];
+
+            int day = mCalendar.get(Calendar.DAY_OF_YEAR);
+            int year = mCalendar.get(Calendar.YEAR);
+            if (day != mDateTextDay || year != mDateTextYear) {
+                mDateText = mDateFormat.format(mDate).toUpperCase();
+                mYearText = Integer.toString(year);
+                mDateTextDay = day;
+                mDateTextYear = year;
+                mStaticLayerDirty = true;
+                // A new day may mean another day of the forecast
+                refreshTodaysWeather();
+            }
 
-            // Draw background.
-            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            // Background, weather and date only change a few times a day
+            if (mStaticLayer == null || mStaticLayer.getWidth() != bounds.width()
+                    || mStaticLayer.getHeight() != bounds.height()) {
+                mStaticLayer = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        Bitmap.Config.ARGB_8888);
+                mStaticLayerCanvas = new Canvas(mStaticLayer);
+                mStaticLayerDirty = true;
+            }
+            WeatherState weather = mWeatherState;
+            if (mStaticLayerDirty || mStaticLayerWeather != weather) {
+                drawStaticLayer(mStaticLayerCanvas, bounds, weather);
+                mStaticLayerDirty = false;
+                mStaticLayerWeather = weather;
+            }
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
 
             // Time: display seconds in interactive mode
             canvas.drawText(hours, centerX - mTimeXOffset, mTimeYOffset, mTimePaint);
@@ -416,19 +700,52 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
                 canvas.drawText(seconds, centerX - mTimeXOffset + mMinXOffset, mTimeYOffset, mSecPaint);
             }
 
-            // Weather Icon: center in face
-            Bitmap weatherIcon = mAmbient ? mWeatherIconAmbient : mWeatherIcon;
-            int cx = (bounds.width() - weatherIcon.getWidth()) >> 1;
-            int cy = (bounds.height() - weatherIcon.getHeight()) >> 1;
-            canvas.drawBitmap(weatherIcon, cx, cy, new Paint());
+            recordFrameTime(System.nanoTime() - startTime);
+        }
 
-            // Weather Low and High: left and right of icon
-            canvas.drawText(mWeatherLow, centerX - 60, centerY + 15, mLoTempPaint);
-            canvas.drawText(mWeatherHigh, centerX + 60, centerY + 15, mHiTempPaint);
+        private void drawStaticLayer(Canvas canvas, Rect bounds, WeatherState weather) {
+            int centerX = bounds.width() >> 1;
+            int centerY = bounds.height() >> 1;
+
+            // Draw background.
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+
+            // Nothing to show until the weather thread has published something
+            if (weather != null) {
+                // Weather Icon: center in face
+                Bitmap weatherIcon = mAmbient ? weather.mIconAmbient : weather.mIcon;
+                int cx = (bounds.width() - weatherIcon.getWidth()) >> 1;
+                int cy = (bounds.height() - weatherIcon.getHeight()) >> 1;
+                canvas.drawBitmap(weatherIcon, cx, cy, mIconPaint);
+
+                // Weather Low and High: left and right of icon
+                canvas.drawText(weather.mLow, centerX - 60, centerY + 15, mLoTempPaint);
+                canvas.drawText(weather.mHigh, centerX + 60, centerY + 15, mHiTempPaint);
+            }
 
             // Date: bottom & centered
-            canvas.drawText(mDateFormat.format(mDate).toUpperCase(), centerX, centerY + mDateYOffset, mDatePaint);
-            canvas.drawText(mCalendar.get(Calendar.YEAR)+"", centerX, centerY + mDateYOffset + 35, mDatePaint);
+            canvas.drawText(mDateText, centerX, centerY + mDateYOffset, mDatePaint);
+            canvas.drawText(mYearText, centerX, centerY + mDateYOffset + 35, mDatePaint);
+        }
+
+        /**
+         * Logs the average and worst time spent in onDraw every {@link #FRAMES_PER_LOG} frames.
+         * Enable with {@code adb shell setprop log.tag.SunshineWatchFace DEBUG}.
+         */
+        private void recordFrameTime(long nanos) {
+            mFrameCount++;
+            mFrameNanos += nanos;
+            mMaxFrameNanos = Math.max(mMaxFrameNanos, nanos);
+            if (mFrameCount == FRAMES_PER_LOG) {
+                if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                    Log.d(LOG_TAG, "onDraw over " + mFrameCount + " frames: avg "
+                            + TimeUnit.NANOSECONDS.toMicros(mFrameNanos / mFrameCount) + "us, max "
+                            + TimeUnit.NANOSECONDS.toMicros(mMaxFrameNanos) + "us");
+                }
+                mFrameCount = 0;
+                mFrameNanos = 0;
+                mMaxFrameNanos = 0;
+            }
         }
 
         /**
@@ -514,24 +831,4 @@ public class SunshineWatchFace extends CanvasWatchFaceService implements GoogleA
         }
         //return -1;
     }
-
-    public Bitmap toGrayscale(Bitmap bmpOriginal)
-    {
-        int width, height;
-        height = bmpOriginal.getHeight();
-        width = bmpOriginal.getWidth();
-
-        Bitmap bmpGrayscale = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas c = new Canvas(bmpGrayscale);
-
-        Paint paint = new Paint();
-        ColorMatrix matrix = new ColorMatrix();
-        matrix.setSaturation(0);
-        ColorMatrixColorFilter filter = new ColorMatrixColorFilter(matrix);
-        paint.setColorFilter(filter);
-
-        c.drawBitmap(bmpOriginal, 0, 0, paint);
-
-        return bmpGrayscale;
-    }
 }
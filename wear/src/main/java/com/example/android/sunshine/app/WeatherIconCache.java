@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+/**
+ * Weather icons decoded and scaled for the watch face, along with their grayscale ambient
+ * variant, so that going back to a condition seen before doesn't decode anything.
+ *
+ * Not thread safe: it is only used on the watch face's weather thread.
+ */
+class WeatherIconCache {
+    // Every condition icon at one or two sizes, in both variants
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    /**
+     * The two variants of one icon.
+     */
+    static final class Icons {
+        final Bitmap mIcon;
+        final Bitmap mIconAmbient;
+
+        Icons(Bitmap icon, Bitmap iconAmbient) {
+            mIcon = icon;
+            mIconAmbient = iconAmbient;
+        }
+    }
+
+    private final Resources mResources;
+    private final Paint mGrayscalePaint;
+    private final LruCache<String, Icons> mIcons = new LruCache<String, Icons>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Icons icons) {
+            return icons.mIcon.getByteCount() + icons.mIconAmbient.getByteCount();
+        }
+    };
+
+    WeatherIconCache(Resources resources) {
+        mResources = resources;
+        ColorMatrix matrix = new ColorMatrix();
+        matrix.setSaturation(0);
+        mGrayscalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mGrayscalePaint.setColorFilter(new ColorMatrixColorFilter(matrix));
+    }
+
+    /**
+     * @param iconResourceId Drawable to decode
+     * @param maxSize Largest width and height the icon may have on the face, or 0 if the face's
+     *                size isn't known yet
+     */
+    Icons get(int iconResourceId, int maxSize) {
+        String key = iconResourceId + "@" + maxSize;
+        Icons icons = mIcons.get(key);
+        if (icons == null) {
+            Bitmap icon = scaleToFit(BitmapFactory.decodeResource(mResources, iconResourceId),
+                  maxSize);
+            icons = new Icons(icon, toGrayscale(icon));
+            mIcons.put(key, icons);
+        }
+        return icons;
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxSize) {
+        int largestSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (maxSize <= 0 || largestSide <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / largestSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+              Math.round(bitmap.getHeight() * scale), true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    private Bitmap toGrayscale(Bitmap bmpOriginal) {
+        Bitmap bmpGrayscale = Bitmap.createBitmap(bmpOriginal.getWidth(), bmpOriginal.getHeight(),
+              Bitmap.Config.ARGB_8888);
+        Canvas c = new Canvas(bmpGrayscale);
+        c.drawBitmap(bmpOriginal, 0, 0, mGrayscalePaint);
+        return bmpGrayscale;
+    }
+}
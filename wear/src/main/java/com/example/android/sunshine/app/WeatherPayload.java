@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The forecast sent by the phone, decoded from the compact payload written by the app's
+ * WearForecastPayload.  The two must be changed together.
+ */
+public final class WeatherPayload {
+    private static final int VERSION = 1;
+    private static final char DEGREES = (char) 0x00B0;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final boolean mMetric;
+    // Sorted by ascending date
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    // In tenths of a degree Celsius
+    private final short[] mHighs;
+    private final short[] mLows;
+
+    private WeatherPayload(boolean metric, long[] dates, int[] weatherIds, short[] highs,
+                           short[] lows) {
+        mMetric = metric;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+    }
+
+    /**
+     * @return the decoded forecast, or null if the payload is malformed or from an unknown
+     * version of the phone app.
+     */
+    public static WeatherPayload decode(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            boolean metric = in.readBoolean();
+            int dayCount = in.readShort();
+            if (dayCount < 0) {
+                return null;
+            }
+            long[] dates = new long[dayCount];
+            int[] weatherIds = new int[dayCount];
+            short[] highs = new short[dayCount];
+            short[] lows = new short[dayCount];
+            for (int i = 0; i < dayCount; i++) {
+                dates[i] = in.readLong();
+                weatherIds[i] = in.readShort();
+                highs[i] = in.readShort();
+                lows[i] = in.readShort();
+            }
+            return new WeatherPayload(metric, dates, weatherIds, highs, lows);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the index of the last day starting at or before the given time, which is the
+     * forecast for that time, or -1 if the forecast doesn't cover it.
+     */
+    public int findDay(long timeMillis) {
+        int day = -1;
+        for (int i = 0; i < mDates.length && mDates[i] <= timeMillis; i++) {
+            day = i;
+        }
+        // Nothing says when the last day ends, so give it a day
+        if (day >= 0 && day == mDates.length - 1 && timeMillis - mDates[day] >= DAY_IN_MILLIS) {
+            return -1;
+        }
+        return day;
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getFormattedHigh(int day) {
+        return formatTemperature(mHighs[day]);
+    }
+
+    public String getFormattedLow(int day) {
+        return formatTemperature(mLows[day]);
+    }
+
+    private String formatTemperature(short tenthsCelsius) {
+        double temperature = tenthsCelsius / 10.0;
+        if (!mMetric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(Locale.getDefault(), "%1.0f", temperature) + DEGREES;
+    }
+}
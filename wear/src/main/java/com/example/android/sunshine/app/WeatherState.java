@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+
+/**
+ * Everything the watch face draws for the weather, ready to draw.  Instances are built in the
+ * background and never change afterwards, so the draw path can read one without locking and
+ * never sees half of an update.
+ */
+public final class WeatherState {
+    public final int mWeatherId;
+    public final Bitmap mIcon;
+    public final Bitmap mIconAmbient;
+    public final String mHigh;
+    public final String mLow;
+
+    public WeatherState(int weatherId, Bitmap icon, Bitmap iconAmbient, String high, String low) {
+        mWeatherId = weatherId;
+        mIcon = icon;
+        mIconAmbient = iconAmbient;
+        mHigh = high;
+        mLow = low;
+    }
+}